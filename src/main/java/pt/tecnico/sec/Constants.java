@@ -3,6 +3,8 @@ package pt.tecnico.sec;
 public final class Constants {
     // Environment
     public static final String ENVIRONMENT_PATH = "src/main/resources/environment.json";
+    public static final String ENVIRONMENT_BIN_PATH = "src/main/resources/environment.bin";
+    public static final int ENVIRONMENT_CACHED_GRIDS = 8; // Epoch grids kept in memory when reading the binary environment
 
     // KeyStore
     public static final String KEYSTORE_DIRECTORY = "src/main/resources/keystore/";
@@ -10,6 +12,8 @@ public final class Constants {
     public static final String KEYSTORE_TYPE = "PKCS12";
     public static final String KEYSTORE_PRIVATE_KEY = "private";
     public static final String KEYSTORE_CERTIFICATE = "certificate";
+    public static final boolean KEYSTORE_WRITE_BEHIND = true; // Store secret key updates asynchronously
+    public static final long KEYSTORE_FLUSH_DELAY = 1000; // Max time (ms) a secret key update waits to be stored
 
     // JDBC driver name and database URL
     public static final String JDBC_DRIVER = "com.mysql.cj.jdbc.Driver";
@@ -29,6 +33,7 @@ public final class Constants {
     public static final String FAILURE = "failure";
     public static final String OK = "OK";
     public static final int POW_N = 2; // Number of leading 0's in Proof of Work
+    public static final int POW_THREADS = Runtime.getRuntime().availableProcessors(); // Workers searching for the nonce
 
     // Health Authority
     public static final int HA_BASE_PORT = 6000;
@@ -37,6 +42,10 @@ public final class Constants {
     // Client
     public static final int CLIENT_BASE_PORT = 8000;
     public static final String CLIENT_USAGE = "Usage: ./mvnw spring-boot:run -Dstart-class=pt.tecnico.sec.client.ClientApplication -Dspring-boot.run.arguments=\"[userId] [serverCount]\"";
+    public static final long WITNESS_TIMEOUT = 3000; // Max time (ms) waiting for a witness' location proof
+    public static final int WITNESS_THREADS = 16; // Witnesses asked for proofs at the same time
+    public static final long STEP_TIMEOUT = 10000; // Max time (ms) waiting for another user to step
+    public static final int STEP_THREADS = 16; // Users signalled to step at the same time
     public static final String EXCEPTION_STR = "Caught exception with description: ";
     public static final String EXIT_CMD = "exit";
     public static final String HELP_CMD = "help";
@@ -48,5 +57,13 @@ public final class Constants {
     // Server
     public static final int SERVER_BASE_PORT = 9000;
     public static final String SERVER_USAGE = "Usage: ./mvnw spring-boot:run -Dstart-class=pt.tecnico.sec.server.ServerApplication -Dspring-boot.run.arguments=\"[serverId] [serverCount] [userCount]\"";
-    public static final int BROADCAST_SERVICES_MAX = 6;
+    public static final int BROADCAST_SERVICES_MAX = 1024; // Delivered broadcasts kept beyond this are evicted, oldest first
+    public static final long BROADCAST_TIMEOUT = 10000; // Max time (ms) waiting for a quorum of DELIVERs
+    public static final long BROADCAST_POST_TIMEOUT = BROADCAST_TIMEOUT / 2; // Max time (ms) connecting to, or waiting on, another server
+    public static final long BROADCAST_SERVICES_TTL = 3 * BROADCAST_TIMEOUT; // Max time (ms) a broadcast is kept for late messages
+    public static final int BROADCAST_THREADS = 32; // Default size of the pool posting broadcast messages
+    public static final int BROADCAST_MAX_CONNECTIONS = 64; // Default max pooled connections to other servers
+    public static final int PROOF_VERIFY_THREADS = Runtime.getRuntime().availableProcessors(); // Workers verifying the proofs of a report
+    public static final int PARALLEL_VERIFY_THRESHOLD = 4; // Reports with fewer proofs are verified on the calling thread
+    public static final int REPORT_CACHE_SIZE = 4096; // Max (user, epoch) reports kept in memory by each server
 }
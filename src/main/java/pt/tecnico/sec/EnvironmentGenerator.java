@@ -4,14 +4,12 @@ import org.json.simple.JSONObject;
 import org.json.simple.parser.JSONParser;
 import org.json.simple.parser.ParseException;
 import pt.tecnico.sec.client.domain.Environment;
+import pt.tecnico.sec.client.domain.EnvironmentFile;
 import pt.tecnico.sec.client.domain.Grid;
-import pt.tecnico.sec.client.report.Location;
 
-import java.io.FileReader;
-import java.io.FileWriter;
-import java.io.IOException;
-import java.util.Random;
+import java.io.*;
 
+import static pt.tecnico.sec.Constants.ENVIRONMENT_BIN_PATH;
 import static pt.tecnico.sec.Constants.ENVIRONMENT_PATH;
 
 public class EnvironmentGenerator {
@@ -28,7 +26,10 @@ public class EnvironmentGenerator {
             if (nX <= 0 || nY <= 0 || epochCount <= 0 || userCount <= 0 || _serverCount <= 0)
                 throw new NumberFormatException();
 
-            writeEnvironmentJSON(nX, nY, epochCount, userCount);
+            writeEnvironment(nX, nY, epochCount, userCount);
+            try (Environment environment = loadEnvironment()) {
+                writeEnvironmentJSON(environment); // same grids, for tools reading the JSON format
+            }
         }
         catch (NumberFormatException e) {
             System.out.println("All arguments must be positive integers.");
@@ -39,34 +40,35 @@ public class EnvironmentGenerator {
         }
     }
 
-    // { epoch "0": { user "0": { "x": int , "y": int }, user "1": { "x": int , "y": int } }, epoch "1": { ... }, ... }
+    // Binary environment, see EnvironmentFile
+    public static void writeEnvironment(int nX, int nY, int epochCount, int userCount) throws IOException {
+        EnvironmentFile.write(ENVIRONMENT_BIN_PATH, nX, nY, epochCount, userCount);
+    }
+
+    // Grids are memory-mapped and read only when their epoch is first accessed
+    public static Environment loadEnvironment() throws IOException {
+        return new Environment(_serverCount, EnvironmentFile.open(ENVIRONMENT_BIN_PATH));
+    }
 
-    @SuppressWarnings("unchecked")
-    public static void writeEnvironmentJSON(int nX, int nY, int epochCount, int userCount) throws IOException {
-        JSONObject environmentJSON = new JSONObject();
-        // generate one grid for each epoch
-        for (int epoch = 0; epoch < epochCount; epoch++) {
-            JSONObject gridJSON = new JSONObject();
-            // generate one location for each user
-            for (int userId = 0; userId < userCount; userId++) {
-                // generate random location inside the grid limits
-                Random random = new Random();
-                int x = random.nextInt(nX);
-                int y = random.nextInt(nY);
-                // add location to user
-                JSONObject userJSON = new JSONObject();
-                userJSON.put("x", x);
-                userJSON.put("y", y);
-                // add user to grid (of epoch)
-                gridJSON.put(String.valueOf(userId), userJSON);
+    // { epoch "0": { user "0": { "x": int , "y": int }, user "1": { "x": int , "y": int } }, epoch "1": { ... }, ... }
+    // Written one grid at a time, so memory does not grow with the number of epochs
+    public static void writeEnvironmentJSON(Environment environment) throws IOException {
+        try (Writer file = new BufferedWriter(new FileWriter(ENVIRONMENT_PATH), 1 << 16)) {
+            file.write('{');
+            for (int epoch = 0; epoch <= environment.getMaxEpoch(); epoch++) {
+                Grid grid = environment.getGrid(epoch);
+                if (epoch > 0) file.write(',');
+                file.write("\"" + epoch + "\":{");
+                boolean first = true;
+                for (int userId : grid.getUserList()) {
+                    // add user, with its location, to grid (of epoch)
+                    if (!first) file.write(',');
+                    first = false;
+                    file.write("\"" + userId + "\":{\"x\":" + grid.getX(userId) + ",\"y\":" + grid.getY(userId) + "}");
+                }
+                file.write('}');
             }
-            // add grid (of epoch) to environment
-            environmentJSON.put(String.valueOf(epoch), gridJSON);
-        }
-        // write environment to a JSON file
-        try (FileWriter file = new FileWriter(ENVIRONMENT_PATH)) {
-            file.write(environmentJSON.toJSONString());
-            file.flush();
+            file.write('}');
         }
     }
 
@@ -78,9 +80,9 @@ public class EnvironmentGenerator {
             JSONObject epochSet = (JSONObject) jsonParser.parse(reader);
             for (Object epochStringObject : epochSet.keySet()) {
                 String epochString = (String) epochStringObject;
-                Grid grid = new Grid();
                 // access all users
                 JSONObject userSet = (JSONObject) epochSet.get(epochString);
+                Grid grid = new Grid(userSet.size());
                 for (Object userStringObject : userSet.keySet()) {
                     String userString = (String) userStringObject;
                     // access specific user
@@ -91,8 +93,7 @@ public class EnvironmentGenerator {
 
                     // append user location to grid
                     int user = Integer.parseInt(userString);
-                    Location location = new Location(x, y);
-                    grid.addUserLocation(user, location);
+                    grid.addUserLocation(user, x, y);
                 }
                 // append grind (of epoch) to environment
                 int epoch = Integer.parseInt(epochString);
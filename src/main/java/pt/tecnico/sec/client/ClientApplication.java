@@ -1,6 +1,5 @@
 package pt.tecnico.sec.client;
 
-import org.json.simple.parser.ParseException;
 import org.springframework.boot.CommandLineRunner;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
@@ -8,6 +7,7 @@ import org.springframework.boot.autoconfigure.jdbc.DataSourceAutoConfiguration;
 import org.springframework.boot.web.client.RestTemplateBuilder;
 import org.springframework.context.annotation.Bean;
 import org.springframework.web.client.RestTemplate;
+import pt.tecnico.sec.contract.SecureMessageConverter;
 import pt.tecnico.sec.EnvironmentGenerator;
 import pt.tecnico.sec.client.domain.Environment;
 import pt.tecnico.sec.client.domain.Grid;
@@ -17,7 +17,9 @@ import pt.tecnico.sec.client.report.LocationReport;
 import pt.tecnico.sec.keys.JavaKeyStore;
 
 import java.io.IOException;
+import java.time.Duration;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
 
 import static java.lang.System.exit;
 import static pt.tecnico.sec.Constants.*;
@@ -32,7 +34,7 @@ public class ClientApplication {
         try {
 
             // create environment
-            _environment = EnvironmentGenerator.parseEnvironmentJSON(); // import from randomly generated JSON
+            _environment = EnvironmentGenerator.loadEnvironment(); // map the randomly generated binary environment
             List<Integer> userIds = _environment.getUserList();
             System.out.println("Valid IDs: " + userIds);
             _epoch = 0;
@@ -63,7 +65,7 @@ public class ClientApplication {
             springApplication.setDefaultProperties(Collections.singletonMap("server.port", String.valueOf(port)));
             springApplication.run(args);
 
-        } catch (IOException|ParseException e) {
+        } catch (IOException e) {
             System.out.println("Error setting up client. Please make sure to properly run EnvironmentGenerator and CryptoRSA before running the client.");
         } catch (Exception e) {
             System.out.println(EXCEPTION_STR + e.getMessage());
@@ -71,15 +73,26 @@ public class ClientApplication {
         }
     }
 
+    // picked up by the RestTemplateBuilder, requests then carry secure messages in the binary envelope
+    @Bean
+    public SecureMessageConverter secureMessageConverter() {
+        return new SecureMessageConverter();
+    }
+
     @Bean
     public RestTemplate restTemplate(RestTemplateBuilder builder) {
         return builder.build();
     }
 
     @Bean
-    public CommandLineRunner run(RestTemplate restTemplate) {
+    public CommandLineRunner run(RestTemplate restTemplate, RestTemplateBuilder builder) {
         return args -> {
             _user.setRestTemplate(restTemplate);
+            // requests to other users time out with their futures, a hung peer cannot hold a pool thread
+            _user.setWitnessRestTemplate(builder.setConnectTimeout(Duration.ofMillis(WITNESS_TIMEOUT))
+                    .setReadTimeout(Duration.ofMillis(WITNESS_TIMEOUT)).build());
+            _user.setStepRestTemplate(builder.setConnectTimeout(Duration.ofMillis(STEP_TIMEOUT))
+                    .setReadTimeout(Duration.ofMillis(STEP_TIMEOUT)).build());
 
             try (Scanner scanner = new Scanner(System.in)) {
                 while (true) {
@@ -103,14 +116,13 @@ public class ClientApplication {
                                     continue;
                                 }
 
-                                // perform the step on _user
+                                // signal other users to step, while performing the step on _user
+                                CompletableFuture<List<Integer>> stepRequests = _user.stepRequests(_environment.getUserList());
                                 step();
 
-                                // signal other users to step
-                                for (int userId : _environment.getUserList()) {
-                                    if (userId == _user.getId()) continue; // do not send request to myself
-                                    _user.stepRequest(userId);
-                                }
+                                List<Integer> failed = stepRequests.join();
+                                if (!failed.isEmpty())
+                                    System.out.println("Users " + failed + " did not confirm the step.");
                             }
                             catch (Exception e) {
                                 System.out.println(e.getMessage());
@@ -190,6 +202,8 @@ public class ClientApplication {
                 // no line was found by the scanner - exit client
             }
 
+            _user.closeKeyStore(); // store pending secret keys
+            _environment.close();
             exit(0);
         };
     }
@@ -217,7 +231,7 @@ public class ClientApplication {
     }
 
     // can be called by controller - step to synchronize
-    public void step() {
+    public synchronized void step() {
         Grid nextGrid;
         int maxEpoch = _environment.getMaxEpoch();
         if (++_epoch < maxEpoch) nextGrid = _environment.getGrid(_epoch);
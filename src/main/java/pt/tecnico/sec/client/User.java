@@ -20,12 +20,16 @@ import java.security.NoSuchAlgorithmException;
 import java.security.PrivateKey;
 import java.security.PublicKey;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import static pt.tecnico.sec.Constants.*;
 
 public class User {
 
     private RestTemplate _restTemplate;
+    private RestTemplate _witnessRestTemplate; // requests to other users, bounded by WITNESS_TIMEOUT and STEP_TIMEOUT
+    private RestTemplate _stepRestTemplate;
     private final int _id;
     private final int _serverCount;
     private final JavaKeyStore _keyStore;
@@ -33,11 +37,32 @@ public class User {
     private Grid _prevGrid = null; // useful for synchronization
     private Grid _grid;
     private int _epoch = 0;
-    private final Map<Integer, List<LocationProof>> _proofs =  new HashMap<>();
+    private final Map<Integer, List<LocationProof>> _proofs =  new ConcurrentHashMap<>();
 
     private static final Map<Integer, Integer> _sKeysCreationEpoch = new HashMap<>();
     private static final Map<Integer, Long> _serverNounces = new HashMap<>();
 
+    // step signals sent to the other users, at most STEP_THREADS at a time
+    private static final ExecutorService _stepExecutor = Executors.newFixedThreadPool(STEP_THREADS, runnable -> {
+        Thread thread = new Thread(runnable, "step-request");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // witness requests of a step run concurrently
+    private static final ExecutorService _witnessExecutor = Executors.newFixedThreadPool(WITNESS_THREADS, runnable -> {
+        Thread thread = new Thread(runnable, "witness-request");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // proof of work workers, daemons so they never keep the client alive
+    private static final ExecutorService _powExecutor = Executors.newFixedThreadPool(POW_THREADS, runnable -> {
+        Thread thread = new Thread(runnable, "pow-worker");
+        thread.setDaemon(true);
+        return thread;
+    });
+
     public User(Grid grid, int id, int serverCount, JavaKeyStore keyStore) {
         _grid = grid;
         _id = id;
@@ -54,6 +79,14 @@ public class User {
         _restTemplate = restTemplate;
     }
 
+    public void setWitnessRestTemplate(RestTemplate witnessRestTemplate) {
+        _witnessRestTemplate = witnessRestTemplate;
+    }
+
+    public void setStepRestTemplate(RestTemplate stepRestTemplate) {
+        _stepRestTemplate = stepRestTemplate;
+    }
+
     public int getId() {
         return _id;
     }
@@ -66,6 +99,10 @@ public class User {
         return _prevGrid.getUserLocation(_id);
     }
 
+    public void closeKeyStore() throws Exception {
+        _keyStore.close();
+    }
+
 
     /* ========================================================== */
     /* ====[                   Auxiliary                    ]==== */
@@ -106,16 +143,36 @@ public class User {
         System.out.println("Stepping...");
         System.out.println("Previous epoch " + _epoch + ", location " + getLocation());
         proveLocation();
-        _epoch++;
-        _prevGrid = _grid;
-        _grid = nextGrid;
+        synchronized (this) { // witnesses read these while answering proof requests
+            _epoch++;
+            _prevGrid = _grid;
+            _grid = nextGrid;
+        }
         System.out.println("Current epoch " + _epoch + ", location " + getLocation());
         System.out.println("Done!");
     }
 
     public void stepRequest(int userId) {
         //System.out.println("[Request sent] Type: Step To: " + getUserURL(userId) + ", From: " + _id);
-        _restTemplate.getForObject(getUserURL(userId)+ "/step/", Void.class);
+        _stepRestTemplate.getForObject(getUserURL(userId)+ "/step/", Void.class);
+    }
+
+    // Signals every other user to step at once, completes with the ids of the users that failed to step
+    public CompletableFuture<List<Integer>> stepRequests(List<Integer> userIds) {
+        Map<Integer, CompletableFuture<Boolean>> requests = new LinkedHashMap<>();
+        for (int userId : userIds) {
+            if (userId == _id) continue; // do not send request to myself
+            requests.put(userId, CompletableFuture.runAsync(() -> stepRequest(userId), _stepExecutor)
+                    .orTimeout(STEP_TIMEOUT, TimeUnit.MILLISECONDS)
+                    .handle((result, e) -> e == null));
+        }
+
+        return CompletableFuture.allOf(requests.values().toArray(new CompletableFuture[0])).thenApply(done -> {
+            List<Integer> failed = new ArrayList<>();
+            for (Map.Entry<Integer, CompletableFuture<Boolean>> request : requests.entrySet())
+                if (!request.getValue().join()) failed.add(request.getKey());
+            return failed;
+        });
     }
 
 
@@ -123,24 +180,55 @@ public class User {
     /* ====[             Request Location Proof             ]==== */
     /* ========================================================== */
 
-    private LocationProof requestLocationProof(int userId) {
+    private LocationProof requestLocationProof(int userId, int epoch) {
         Map<String, Integer> params = new HashMap<>();
-        params.put("epoch", _epoch);
+        params.put("epoch", epoch);
         params.put("proverId", _id);
-        //System.out.println("[Request sent] Type: LocationProof To: " + getUserURL(userId) + ", From: " + _id + ", Epoch: " + _epoch);
-        return _restTemplate.getForObject(getUserURL(userId)+ "/location-proof/{epoch}/{proverId}", LocationProof.class, params);
+        //System.out.println("[Request sent] Type: LocationProof To: " + getUserURL(userId) + ", From: " + _id + ", Epoch: " + epoch);
+        return _witnessRestTemplate.getForObject(getUserURL(userId)+ "/location-proof/{epoch}/{proverId}", LocationProof.class, params);
     }
 
     public void proveLocation() {
         List<Integer> nearbyUsers = findNearbyUsers();
-        List<LocationProof> epochProofs = new ArrayList<>();
-
+        int epoch = _epoch;
+        List<LocationProof> epochProofs = new CopyOnWriteArrayList<>();
+        _proofs.put(epoch, epochProofs);
+        if (nearbyUsers.isEmpty()) return;
+
+        // Proofs are checked as they arrive, more than F_USERS valid ones are enough to move on
+        LocationReport ownReport = new LocationReport(_id, epoch, getLocation(), new ArrayList<>());
+        Set<Integer> validWitnesses = ConcurrentHashMap.newKeySet();
+        CompletableFuture<Void> enoughProofs = new CompletableFuture<>();
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(WITNESS_TIMEOUT);
+
+        List<CompletableFuture<Void>> requests = new ArrayList<>();
         for (int userId : nearbyUsers) {
-            System.out.println("Found nearby user " + userId + " (epoch " + _epoch + ")");
-            epochProofs.add(requestLocationProof(userId));
+            System.out.println("Found nearby user " + userId + " (epoch " + epoch + ")");
+            requests.add(CompletableFuture.supplyAsync(() -> requestLocationProof(userId, epoch), _witnessExecutor)
+                    .orTimeout(WITNESS_TIMEOUT, TimeUnit.MILLISECONDS)
+                    .thenAccept(proof -> {
+                        if (proof == null || System.nanoTime() > deadline) return; // proofs after the deadline are dropped
+                        epochProofs.add(proof);
+                        if (isValidProof(ownReport, proof) && validWitnesses.add(proof.get_witnessId())
+                                && validWitnesses.size() > F_USERS)
+                            enoughProofs.complete(null);
+                    })
+                    .exceptionally(e -> {
+                        System.out.println("No location proof from user " + userId + " (epoch " + epoch + ")");
+                        return null;
+                    }));
         }
 
-        _proofs.put(_epoch, epochProofs);
+        CompletableFuture.anyOf(enoughProofs, CompletableFuture.allOf(requests.toArray(new CompletableFuture[0]))).join();
+    }
+
+    private boolean isValidProof(LocationReport ownReport, LocationProof proof) {
+        try {
+            PublicKey witnessKey = _keyStore.getAllUsersPublicKeys(_id).get(proof.get_witnessId());
+            return ownReport.isProofValid(proof, Collections.emptySet(), witnessKey);
+        } catch (Exception e) {
+            return false;
+        }
     }
 
     public List<LocationProof> getEpochProofs(int epoch) {
@@ -160,20 +248,23 @@ public class User {
     }
 
     public LocationProof makeLocationProof(int proverId, int proverEpoch) throws Exception {
-        // check proximity
-        Location witnessLoc;
-        String type;
-        if (proverEpoch == _epoch) { // users are synchronized
-            witnessLoc = getLocation();
-            type = isNearby(proverId) ? SUCCESS : FAILURE;
-        } else if (proverEpoch == _epoch - 1) { // prover is not synchronized yet
-            witnessLoc = getPrevLocation();
-            type = wasNearby(proverId) ? SUCCESS : FAILURE;
-        } else
-            throw new IllegalArgumentException("Can only prove location requests regarding current or previous epoch");
+        // check proximity, against a consistent view of the epoch while this user may be stepping
+        ProofData proofData;
+        synchronized (this) {
+            Location witnessLoc;
+            String type;
+            if (proverEpoch == _epoch) { // users are synchronized
+                witnessLoc = getLocation();
+                type = isNearby(proverId) ? SUCCESS : FAILURE;
+            } else if (proverEpoch == _epoch - 1) { // prover is not synchronized yet
+                witnessLoc = getPrevLocation();
+                type = wasNearby(proverId) ? SUCCESS : FAILURE;
+            } else
+                throw new IllegalArgumentException("Can only prove location requests regarding current or previous epoch");
+            proofData = new ProofData(witnessLoc, proverId, _id, proverEpoch, type);
+        }
 
         // build and sign proof
-        ProofData proofData = new ProofData(witnessLoc, proverId, _id, proverEpoch, type);
         return signLocationProof(proofData);
     }
 
@@ -185,7 +276,7 @@ public class User {
     @SuppressWarnings("SameReturnValue")
     public String submitReport(int epoch, Location epochLocation) throws Exception {
         // Build report
-        List<LocationProof> epochProofs = getEpochProofs(epoch);
+        List<LocationProof> epochProofs = new ArrayList<>(getEpochProofs(epoch));
         LocationReport locationReport = new LocationReport(_id, epoch, epochLocation, epochProofs);
         locationReport.removeInvalidProofs( _keyStore.getAllUsersPublicKeys(_id) );
         System.out.println(locationReport);
@@ -363,35 +454,66 @@ public class User {
 
         System.out.print("Generating proof of work...");
 
-        int i;
-        byte[] nounce;
-        byte[] messageWithNonce;
-        byte[] hash;
-        MessageDigest digest = MessageDigest.getInstance("SHA-256");
+        // Hash the message once, every candidate resumes from a clone of this state
+        MessageDigest prefixDigest = MessageDigest.getInstance("SHA-256");
+        prefixDigest.update(message);
 
-        // Try to find the nounce to get n leading zeros
-        for (i=0; ;i++){
-
-            nounce = ByteBuffer.allocate(POW_N+2).putInt(i).array();
-            messageWithNonce = new byte[message.length + nounce.length];
-            System.arraycopy(message, 0, messageWithNonce,0, message.length);
-            System.arraycopy(nounce, 0, messageWithNonce, message.length, nounce.length);
-
-            hash = digest.digest(messageWithNonce);
+        // Each worker tries the nonces i = worker, worker + POW_THREADS, ...
+        AtomicBoolean found = new AtomicBoolean(false);
+        List<Future<byte[]>> workers = new ArrayList<>();
+        for (int worker = 0; worker < POW_THREADS; worker++) {
+            int first = worker;
+            workers.add(_powExecutor.submit(() -> searchNonce(message, prefixDigest, first, found)));
+        }
 
-            // Check if it has n leading 0s
-            boolean found = true;
-            for (int k = 0; k < POW_N; k++){
-                if (hash[k] != 0) {
-                    found = false;
-                    break;
-                }
+        byte[] messageWithNonce = null;
+        try {
+            for (Future<byte[]> worker : workers) {
+                byte[] result = worker.get();
+                if (result != null && messageWithNonce == null) messageWithNonce = result;
             }
-            if (found) break;
-
         }
+        catch (InterruptedException e) {
+            found.set(true); // stop the remaining workers
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while generating proof of work");
+        }
+        catch (ExecutionException e) {
+            found.set(true);
+            throw new IllegalStateException("Error generating proof of work: " + e.getCause().getMessage());
+        }
+        if (messageWithNonce == null)
+            throw new IllegalStateException("No proof of work found");
+
         System.out.println("Done!");
         return messageWithNonce;
     }
 
+    private static byte[] searchNonce(byte[] message, MessageDigest prefixDigest, int first, AtomicBoolean found) throws Exception {
+        MessageDigest prefix = (MessageDigest) prefixDigest.clone(); // the shared state is only ever cloned
+        byte[] messageWithNonce = Arrays.copyOf(message, message.length + POW_N + 2);
+        ByteBuffer nonce = ByteBuffer.wrap(messageWithNonce, message.length, POW_N + 2).slice();
+        byte[] hash = new byte[prefix.getDigestLength()];
+
+        // Nonces are unsigned 32-bit values, the search stops once any worker finds a match
+        for (long i = first; i <= 0xFFFFFFFFL && !found.get(); i += POW_THREADS) {
+            nonce.putInt(0, (int) i);
+
+            MessageDigest digest = (MessageDigest) prefix.clone();
+            digest.update(messageWithNonce, message.length, POW_N + 2);
+            digest.digest(hash, 0, hash.length);
+
+            // Check if it has n leading 0s
+            if (hasLeadingZeros(hash) && found.compareAndSet(false, true))
+                return messageWithNonce;
+        }
+        return null;
+    }
+
+    private static boolean hasLeadingZeros(byte[] hash) {
+        for (int k = 0; k < POW_N; k++)
+            if (hash[k] != 0) return false;
+        return true;
+    }
+
 }
@@ -1,25 +1,64 @@
 package pt.tecnico.sec.client.domain;
 
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.util.*;
 
+import static pt.tecnico.sec.Constants.ENVIRONMENT_CACHED_GRIDS;
+
 @SuppressWarnings("unused")
-public class Environment {
+public class Environment implements Closeable {
 
-    // Map Epoch -> Grid
-    private final Map<Integer, Grid> _environment = new HashMap<>();
+    // Epoch -> Grid, indexed by epoch
+    private final List<Grid> _environment = new ArrayList<>();
+    private int _maxEpoch = -1;
     private final int _serverCount;
 
+    // Grids read on demand from a binary environment file, only the most recent ones are kept
+    private final EnvironmentFile _file;
+    private final Map<Integer, Grid> _loadedGrids = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Integer, Grid> eldest) {
+            return size() > ENVIRONMENT_CACHED_GRIDS;
+        }
+    };
+
     public Environment(int serverCount) {
         _serverCount = serverCount;
+        _file = null;
+    }
+
+    public Environment(int serverCount, EnvironmentFile file) {
+        _serverCount = serverCount;
+        _file = file;
+        _maxEpoch = file.getEpochCount() - 1;
     }
 
     public Grid getGrid(int epoch) {
+        if (_file != null) return loadGrid(epoch);
+        if (epoch < 0 || epoch >= _environment.size()) return null;
         return _environment.get(epoch);
     }
 
+    private synchronized Grid loadGrid(int epoch) {
+        if (epoch < 0 || epoch > _maxEpoch) return null;
+        Grid grid = _loadedGrids.get(epoch);
+        if (grid == null) {
+            try {
+                grid = _file.readGrid(epoch);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            _loadedGrids.put(epoch, grid);
+        }
+        return grid;
+    }
+
     public int getMaxEpoch() {
-        Set<Integer> epochs = _environment.keySet();
-        return Collections.max(epochs);
+        if (_maxEpoch < 0)
+            throw new NoSuchElementException("Environment has no epochs");
+        return _maxEpoch;
     }
 
     public List<Integer> getUserList() {
@@ -27,11 +66,24 @@ public class Environment {
     }
 
     public void addEpochGrid(int epoch, Grid grid) {
-        _environment.put(epoch, grid);
+        if (_file != null)
+            throw new IllegalStateException("Environment is backed by a file");
+        if (epoch < 0)
+            throw new IllegalArgumentException("Epochs must not be negative");
+        while (_environment.size() <= epoch)
+            _environment.add(null);
+        _environment.set(epoch, grid);
+        _maxEpoch = Math.max(_maxEpoch, epoch);
     }
 
     public int getServerCount() {
         return _serverCount;
     }
 
+    // releases the environment file, if the grids are read from one
+    @Override
+    public void close() throws IOException {
+        if (_file != null) _file.close();
+    }
+
 }
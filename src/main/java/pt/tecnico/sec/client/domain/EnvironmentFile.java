@@ -0,0 +1,107 @@
+package pt.tecnico.sec.client.domain;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Random;
+
+/*
+ * Binary environment, read through memory-mapping one epoch at a time:
+ *   [magic:int][version:int][epochCount:int][userCount:int]
+ *   then, for each epoch, [x of each user:int * userCount][y of each user:int * userCount]
+ */
+public class EnvironmentFile implements Closeable {
+
+    private static final int MAGIC = 0x53454345; // "SECE"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 4 * Integer.BYTES;
+
+    private final FileChannel _channel;
+    private final int _epochCount;
+    private final int _userCount;
+
+    private EnvironmentFile(FileChannel channel, int epochCount, int userCount) {
+        _channel = channel;
+        _epochCount = epochCount;
+        _userCount = userCount;
+    }
+
+    public static EnvironmentFile open(String path) throws IOException {
+        FileChannel channel = FileChannel.open(Path.of(path), StandardOpenOption.READ);
+        try {
+            if (channel.size() < HEADER_SIZE)
+                throw new IOException("Invalid environment file: " + path);
+            IntBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE).asIntBuffer();
+            int magic = header.get();
+            int version = header.get();
+            int epochCount = header.get();
+            int userCount = header.get();
+            if (magic != MAGIC || version != VERSION || epochCount < 0 || userCount < 0
+                    || channel.size() != HEADER_SIZE + (long) epochCount * epochSize(userCount))
+                throw new IOException("Invalid environment file: " + path);
+            return new EnvironmentFile(channel, epochCount, userCount);
+        }
+        catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    // Writes a random environment, one epoch at a time
+    public static void write(String path, int nX, int nY, int epochCount, int userCount) throws IOException {
+        Random random = new Random();
+        int[] xs = new int[userCount];
+        int[] ys = new int[userCount];
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(path), 1 << 16))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(epochCount);
+            out.writeInt(userCount);
+            for (int epoch = 0; epoch < epochCount; epoch++) {
+                // generate random location inside the grid limits, for each user
+                for (int userId = 0; userId < userCount; userId++) {
+                    xs[userId] = random.nextInt(nX);
+                    ys[userId] = random.nextInt(nY);
+                }
+                for (int x : xs) out.writeInt(x);
+                for (int y : ys) out.writeInt(y);
+            }
+        }
+    }
+
+    public int getEpochCount() {
+        return _epochCount;
+    }
+
+    public int getUserCount() {
+        return _userCount;
+    }
+
+    public Grid readGrid(int epoch) throws IOException {
+        if (epoch < 0 || epoch >= _epochCount)
+            throw new IllegalArgumentException("Epoch " + epoch + " is not covered by the environment");
+
+        long offset = HEADER_SIZE + (long) epoch * epochSize(_userCount);
+        MappedByteBuffer buffer = _channel.map(FileChannel.MapMode.READ_ONLY, offset, epochSize(_userCount));
+        IntBuffer ints = buffer.asIntBuffer();
+        int[] xs = new int[_userCount];
+        int[] ys = new int[_userCount];
+        ints.get(xs);
+        ints.get(ys);
+        return new Grid(xs, ys);
+    }
+
+    private static long epochSize(int userCount) {
+        return 2L * userCount * Integer.BYTES;
+    }
+
+    @Override
+    public void close() throws IOException {
+        _channel.close();
+    }
+
+}
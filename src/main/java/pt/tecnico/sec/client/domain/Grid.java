@@ -2,54 +2,168 @@ package pt.tecnico.sec.client.domain;
 
 import pt.tecnico.sec.client.report.Location;
 
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
+import java.util.*;
 
 import static pt.tecnico.sec.Constants.DETECTION_RANGE;
 
 public class Grid {
-    // Map UserID -> Location
-    private final Map<Integer, Location> _grid = new HashMap<>();
+    // UserID -> Location, as dense coordinate arrays indexed by user id
+    private int[] _xs;
+    private int[] _ys;
+    private final BitSet _users = new BitSet();
+
+    // Built on the first query after the grid is loaded, dropped whenever a user is added
+    private List<Integer> _userList = null;
+    private Map<Long, int[]> _cells = null; // Map Cell -> UserIDs, cells are DETECTION_RANGE wide
 
     public Grid() {
-        // empty constructor
+        this(16);
+    }
+
+    public Grid(int userCount) {
+        _xs = new int[Math.max(userCount, 1)];
+        _ys = new int[Math.max(userCount, 1)];
+    }
+
+    // every user from 0 to xs.length - 1, takes ownership of the arrays
+    public Grid(int[] xs, int[] ys) {
+        if (xs.length != ys.length)
+            throw new IllegalArgumentException("Coordinate arrays must have the same length");
+        _xs = xs;
+        _ys = ys;
+        _users.set(0, xs.length);
     }
 
     public void addUserLocation(int userId, Location location) {
-        _grid.put(userId, location);
+        addUserLocation(userId, location.get_x(), location.get_y());
     }
 
-    public List<Integer> getUserList() {
-        return new ArrayList<>( _grid.keySet() );
+    public synchronized void addUserLocation(int userId, int x, int y) {
+        if (userId < 0)
+            throw new IllegalArgumentException("User IDs must not be negative");
+        if (userId >= _xs.length) {
+            int capacity = Math.max(userId + 1, _xs.length * 2);
+            _xs = Arrays.copyOf(_xs, capacity);
+            _ys = Arrays.copyOf(_ys, capacity);
+        }
+        _xs[userId] = x;
+        _ys[userId] = y;
+        _users.set(userId);
+        _userList = null;
+        _cells = null;
+    }
+
+    public synchronized List<Integer> getUserList() {
+        if (_userList == null) {
+            List<Integer> users = new ArrayList<>(_users.cardinality());
+            for (int userId = _users.nextSetBit(0); userId >= 0; userId = _users.nextSetBit(userId + 1))
+                users.add(userId);
+            _userList = Collections.unmodifiableList(users);
+        }
+        return _userList;
+    }
+
+    public boolean hasUser(int userId) {
+        return userId >= 0 && _users.get(userId);
     }
 
     public Location getUserLocation(int userId) {
-        return _grid.get(userId);
+        if (!hasUser(userId)) return null;
+        return new Location(_xs[userId], _ys[userId]);
     }
 
-    private double distance(int userId1, int userId2) {
-        Location l1 = getUserLocation(userId1);
-        Location l2 = getUserLocation(userId2);
-        return l1.distance(l2);
+    public int getX(int userId) {
+        checkUser(userId);
+        return _xs[userId];
+    }
+
+    public int getY(int userId) {
+        checkUser(userId);
+        return _ys[userId];
     }
 
     public boolean isNearby(int userId1, int userId2) {
-        return distance(userId1, userId2) <= DETECTION_RANGE;
+        checkUser(userId1);
+        checkUser(userId2);
+        return isNearby(_xs[userId1], _ys[userId1], _xs[userId2], _ys[userId2]);
     }
 
     public List<Integer> findNearbyUsers(int userId1) {
+        checkUser(userId1);
+        Map<Long, int[]> cells = getCells();
+        int x1 = _xs[userId1];
+        int y1 = _ys[userId1];
+        int cellX = cell(x1);
+        int cellY = cell(y1);
+
+        // the detection range never goes past the neighbouring cells
         List<Integer> nearbyUsers = new ArrayList<>();
-        for (int userId2 : getUserList()) {
-            // skip if comparing with the same user
-            if (userId2 == userId1)
-                continue;
-            // append if user2 inside detection radios
-            if (isNearby(userId1, userId2))
-                nearbyUsers.add(userId2);
+        for (int x = cellX - 1; x <= cellX + 1; x++) {
+            for (int y = cellY - 1; y <= cellY + 1; y++) {
+                int[] users = cells.get(cellKey(x, y));
+                if (users == null) continue;
+                for (int userId2 : users) {
+                    // skip if comparing with the same user
+                    if (userId2 == userId1)
+                        continue;
+                    // append if user2 inside detection radios
+                    if (isNearby(x1, y1, _xs[userId2], _ys[userId2]))
+                        nearbyUsers.add(userId2);
+                }
+            }
         }
+        Collections.sort(nearbyUsers);
         return nearbyUsers;
     }
 
+    // ids within the arrays' capacity that were never added would otherwise read as (0, 0)
+    private void checkUser(int userId) {
+        if (!hasUser(userId))
+            throw new IllegalArgumentException("User " + userId + " is not in the grid");
+    }
+
+    /* ========================================================== */
+    /* ====[                 Spatial Index                  ]==== */
+    /* ========================================================== */
+
+    private synchronized Map<Long, int[]> getCells() {
+        if (_cells == null) {
+            // count the users of each cell, then fill one array per cell
+            Map<Long, int[]> counts = new HashMap<>();
+            for (int userId = _users.nextSetBit(0); userId >= 0; userId = _users.nextSetBit(userId + 1))
+                counts.computeIfAbsent(userCellKey(userId), k -> new int[1])[0]++;
+
+            Map<Long, int[]> cells = new HashMap<>(counts.size() * 2);
+            for (Map.Entry<Long, int[]> entry : counts.entrySet()) {
+                cells.put(entry.getKey(), new int[entry.getValue()[0]]);
+                entry.getValue()[0] = 0; // reused as the fill position
+            }
+            for (int userId = _users.nextSetBit(0); userId >= 0; userId = _users.nextSetBit(userId + 1)) {
+                long key = userCellKey(userId);
+                cells.get(key)[counts.get(key)[0]++] = userId;
+            }
+            _cells = cells;
+        }
+        return _cells;
+    }
+
+    private long userCellKey(int userId) {
+        return cellKey(cell(_xs[userId]), cell(_ys[userId]));
+    }
+
+    private static int cell(int coordinate) {
+        return Math.floorDiv(coordinate, DETECTION_RANGE);
+    }
+
+    private static long cellKey(int cellX, int cellY) {
+        return ((long) cellX << 32) | (cellY & 0xFFFFFFFFL);
+    }
+
+    // integer squared distance, same result as the euclidean distance check
+    private static boolean isNearby(int x1, int y1, int x2, int y2) {
+        long dx = (long) x1 - x2;
+        long dy = (long) y1 - y2;
+        return dx * dx + dy * dy <= (long) DETECTION_RANGE * DETECTION_RANGE;
+    }
+
 }
@@ -52,7 +52,7 @@ public class LocationProof {
 
     public void verify(PublicKey verifyKey) throws Exception {
         byte[] bytes = ObjectMapperHandler.writeValueAsBytes(_proofData);
-        if (_signature == null || !CryptoRSA.verify(bytes, _signature, verifyKey))
+        if (_signature == null || !CryptoRSA.verifyCached(bytes, _signature, verifyKey))
             throw new IllegalArgumentException("Signature verify failed!");
     }
 
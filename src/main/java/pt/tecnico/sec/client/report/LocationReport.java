@@ -1,7 +1,6 @@
 package pt.tecnico.sec.client.report;
 
 import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
-import com.fasterxml.jackson.databind.ObjectMapper;
 import pt.tecnico.sec.contract.ObjectMapperHandler;
 import pt.tecnico.sec.contract.exception.ReportNotAcceptableException;
 import pt.tecnico.sec.keys.CryptoRSA;
@@ -48,8 +47,7 @@ public class LocationReport {
 
     // convert from bytes
     public static LocationReport getFromBytes(byte[] reportBytes) throws IOException {
-        ObjectMapper objectMapper = new ObjectMapper();
-        return objectMapper.readValue(reportBytes, LocationReport.class);
+        return ObjectMapperHandler.readValue(reportBytes, LocationReport.class);
     }
 
     public int get_userId() {
@@ -115,17 +113,25 @@ public class LocationReport {
     }
 
     public boolean isProofValid(LocationProof signedProof, Set<Integer> prevWitnessIds, PublicKey clientKey) throws Exception {
+        return !prevWitnessIds.contains(signedProof.get_witnessId()) && isProofValid(signedProof, clientKey);
+    }
+
+    // checks a single proof, regardless of the other proofs of the report
+    public boolean isProofValid(LocationProof signedProof, PublicKey clientKey) throws Exception {
         ProofData proofData = signedProof.get_proofData();
-        byte[] data = ObjectMapperHandler.writeValueAsBytes(proofData);
         String signature = signedProof.get_signature();
 
-        return !( signature == null || !CryptoRSA.verify(data, signature, clientKey)
+        // cheap checks first, the signature is only verified for otherwise acceptable proofs
+        if ( signature == null
                 || proofData.get_epoch() != _epoch
                 || !isNearby(proofData.get_location())
                 || !proofData.get_type().equals(SUCCESS)
                 || proofData.get_proverId() != _userId
-                || prevWitnessIds.contains(proofData.get_witnessId())
-                || proofData.get_witnessId() == _userId);
+                || proofData.get_witnessId() == _userId )
+            return false;
+
+        byte[] data = ObjectMapperHandler.writeValueAsBytes(proofData);
+        return CryptoRSA.verifyCached(data, signature, clientKey);
     }
 
     public void verifyProofs(List<PublicKey> publicKeys) throws Exception {
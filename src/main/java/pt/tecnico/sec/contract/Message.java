@@ -136,6 +136,12 @@ public class Message {
         return (UsersAtLocation) _data;
     }
 
+    public byte[] retrieveBytes() {
+        if (!(_data instanceof byte[]))
+            throw new IllegalArgumentException("Message does not contain bytes.");
+        return (byte[]) _data;
+    }
+
 
 
 }
@@ -2,6 +2,8 @@ package pt.tecnico.sec.contract;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
 import pt.tecnico.sec.client.report.LocationReport;
 import pt.tecnico.sec.client.report.ProofData;
 import pt.tecnico.sec.server.broadcast.BroadcastMessage;
@@ -11,29 +13,36 @@ import java.io.IOException;
 @SuppressWarnings("deprecation")
 public final class ObjectMapperHandler {
 
+    // Mappers are thread-safe once configured, sharing them keeps Jackson's serializer caches warm
+    private static final ObjectMapper _objectMapper = new ObjectMapper();
+    private static final ObjectMapper _typedObjectMapper = new ObjectMapper().enableDefaultTyping();
+
+    private static final ObjectWriter _proofDataWriter = _objectMapper.writerFor(ProofData.class);
+    private static final ObjectWriter _locationReportWriter = _objectMapper.writerFor(LocationReport.class);
+    private static final ObjectWriter _broadcastMessageWriter = _objectMapper.writerFor(BroadcastMessage.class);
+    private static final ObjectWriter _messageWriter = _typedObjectMapper.writerFor(Message.class);
+
+    private static final ObjectReader _broadcastMessageReader = _objectMapper.readerFor(BroadcastMessage.class);
+    private static final ObjectReader _messageReader = _typedObjectMapper.readerFor(Message.class);
+
     /* ========================================================== */
     /* ====[                Write as Bytes                  ]==== */
     /* ========================================================== */
 
     public static byte[] writeValueAsBytes(ProofData proofData) throws JsonProcessingException {
-        ObjectMapper objectMapper = new ObjectMapper();
-        return objectMapper.writeValueAsBytes(proofData);
+        return _proofDataWriter.writeValueAsBytes(proofData);
     }
 
     public static byte[] writeValueAsBytes(LocationReport report) throws JsonProcessingException {
-        ObjectMapper objectMapper = new ObjectMapper();
-        return objectMapper.writeValueAsBytes(report);
+        return _locationReportWriter.writeValueAsBytes(report);
     }
 
     public static byte[] writeValueAsBytes(BroadcastMessage m) throws JsonProcessingException {
-        ObjectMapper objectMapper = new ObjectMapper();
-        return objectMapper.writeValueAsBytes(m);
+        return _broadcastMessageWriter.writeValueAsBytes(m);
     }
 
     public static byte[] writeValueAsBytes(Message m) throws JsonProcessingException {
-        ObjectMapper objectMapper = new ObjectMapper();
-        objectMapper.enableDefaultTyping();
-        return objectMapper.writeValueAsBytes(m);
+        return _messageWriter.writeValueAsBytes(m);
     }
 
 
@@ -42,13 +51,14 @@ public final class ObjectMapperHandler {
     /* ========================================================== */
 
     public static BroadcastMessage getBroadcastMessageFromBytes(byte[] bytes) throws IOException {
-        ObjectMapper objectMapper = new ObjectMapper();
-        return objectMapper.readValue(bytes, BroadcastMessage.class);
+        return _broadcastMessageReader.readValue(bytes);
     }
 
     public static Message getMessageFromBytes(byte[] bytes) throws IOException {
-        ObjectMapper objectMapper = new ObjectMapper();
-        objectMapper.enableDefaultTyping();
-        return objectMapper.readValue(bytes, Message.class);
+        return _messageReader.readValue(bytes);
+    }
+
+    public static <T> T readValue(byte[] bytes, Class<T> type) throws IOException {
+        return _objectMapper.readValue(bytes, type);
     }
 }
@@ -1,6 +1,5 @@
 package pt.tecnico.sec.contract;
 
-import com.fasterxml.jackson.databind.ObjectMapper;
 
 import java.io.IOException;
 import java.util.Objects;
@@ -19,8 +18,7 @@ public class ObtainLocationRequest {
 
     // convert from bytes
     public static ObtainLocationRequest getFromBytes(byte[] requestBytes) throws IOException {
-        ObjectMapper objectMapper = new ObjectMapper();
-        return objectMapper.readValue(requestBytes, ObtainLocationRequest.class);
+        return ObjectMapperHandler.readValue(requestBytes, ObtainLocationRequest.class);
     }
 
     public int get_userId() {
@@ -1,9 +1,9 @@
 package pt.tecnico.sec.contract;
 
-import com.fasterxml.jackson.databind.ObjectMapper;
 import pt.tecnico.sec.client.report.Location;
 
 import java.io.IOException;
+import java.util.Objects;
 
 @SuppressWarnings("unused")
 public class ObtainUsersRequest {
@@ -24,8 +24,7 @@ public class ObtainUsersRequest {
 
     // convert from bytes
     public static ObtainUsersRequest getFromBytes(byte[] requestBytes) throws IOException {
-        ObjectMapper objectMapper = new ObjectMapper();
-        return objectMapper.readValue(requestBytes, ObtainUsersRequest.class);
+        return ObjectMapperHandler.readValue(requestBytes, ObtainUsersRequest.class);
     }
 
     public void checkSender(int sender_id) {
@@ -56,4 +55,17 @@ public class ObtainUsersRequest {
                 ", _epoch=" + _epoch +
                 '}';
     }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        ObtainUsersRequest that = (ObtainUsersRequest) o;
+        return _epoch == that._epoch && Objects.equals(_location, that._location);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(_location, _epoch);
+    }
 }
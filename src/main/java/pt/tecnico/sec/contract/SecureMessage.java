@@ -8,6 +8,8 @@ import pt.tecnico.sec.server.broadcast.BroadcastMessage;
 import javax.crypto.SecretKey;
 import java.security.PrivateKey;
 import java.security.PublicKey;
+import java.util.Arrays;
+import java.util.Base64;
 import java.util.Objects;
 
 @SuppressWarnings("unused")
@@ -15,12 +17,13 @@ import java.util.Objects;
 public class SecureMessage {
 
     private int _senderId;
-    private String _cipheredMessage;
-    private String _signature;
+    // raw bytes, written as Base64 strings in JSON and as they are in the binary envelope (SecureMessageConverter)
+    private byte[] _cipheredMessage;
+    private byte[] _signature;
 
     public SecureMessage() {}
 
-    public SecureMessage(int senderId, String cipheredMessage, String signature) {
+    public SecureMessage(int senderId, byte[] cipheredMessage, byte[] signature) {
         _senderId = senderId;
         _cipheredMessage = cipheredMessage;
         _signature = signature;
@@ -34,7 +37,7 @@ public class SecureMessage {
         _cipheredMessage = AESKeyGenerator.encrypt(messageBytes, cipherKey);
 
         // sign message with given private sign key
-        _signature = CryptoRSA.sign(messageBytes, signKey);
+        _signature = CryptoRSA.signBytes(messageBytes, signKey);
     }
 
     public SecureMessage(int senderId, byte[] messageBytes, SecretKey cipherKey, PrivateKey signKey) throws Exception {
@@ -44,7 +47,7 @@ public class SecureMessage {
         _cipheredMessage = AESKeyGenerator.encrypt(messageBytes, cipherKey);
 
         // sign message with given private sign key
-        _signature = CryptoRSA.sign(messageBytes, signKey);
+        _signature = CryptoRSA.signBytes(messageBytes, signKey);
     }
 
     // Used to exchange secret Keys - keyToSend is the new secretKey
@@ -58,7 +61,7 @@ public class SecureMessage {
         _cipheredMessage = CryptoRSA.encrypt(encodedKey, cipherKey);
 
         // sign message with given private sign key
-        _signature = CryptoRSA.sign(encodedKey, signKey);
+        _signature = CryptoRSA.signBytes(encodedKey, signKey);
     }
 
     // Used to respond to secret Key exchange
@@ -70,7 +73,7 @@ public class SecureMessage {
         _cipheredMessage = CryptoRSA.encrypt(messageBytes, cipherKey);
 
         // sign message with given private sign key
-        _signature = CryptoRSA.sign(messageBytes, signKey);
+        _signature = CryptoRSA.signBytes(messageBytes, signKey);
     }
 
     // Used in broadcasts
@@ -82,7 +85,7 @@ public class SecureMessage {
         _cipheredMessage = AESKeyGenerator.encrypt(messageBytes, cipherKey);
 
         // sign message with given private sign key
-        _signature = CryptoRSA.sign(messageBytes, signKey);
+        _signature = CryptoRSA.signBytes(messageBytes, signKey);
     }
 
     public int get_senderId() {
@@ -93,19 +96,19 @@ public class SecureMessage {
         this._senderId = _senderId;
     }
 
-    public String get_cipheredMessage() {
+    public byte[] get_cipheredMessage() {
         return _cipheredMessage;
     }
 
-    public void set_cipheredMessage(String _cipheredMessage) {
+    public void set_cipheredMessage(byte[] _cipheredMessage) {
         this._cipheredMessage = _cipheredMessage;
     }
 
-    public String get_signature() {
+    public byte[] get_signature() {
         return _signature;
     }
 
-    public void set_signature(String _signature) {
+    public void set_signature(byte[] _signature) {
         this._signature = _signature;
     }
 
@@ -113,8 +116,8 @@ public class SecureMessage {
     public String toString() {
         return "SecureMessage{" +
                 ", _senderId=" + _senderId +
-                ", _cipheredMessage='" + _cipheredMessage + '\'' +
-                ", _signature='" + _signature + '\'' +
+                ", _cipheredMessage='" + ((_cipheredMessage != null) ? Base64.getEncoder().encodeToString(_cipheredMessage) : null) + '\'' +
+                ", _signature='" + ((_signature != null) ? Base64.getEncoder().encodeToString(_signature) : null) + '\'' +
                 '}';
     }
 
@@ -123,12 +126,15 @@ public class SecureMessage {
         if (this == o) return true;
         if (o == null || getClass() != o.getClass()) return false;
         SecureMessage that = (SecureMessage) o;
-        return _senderId == that._senderId && Objects.equals(_cipheredMessage, that._cipheredMessage) && Objects.equals(_signature, that._signature);
+        return _senderId == that._senderId && Arrays.equals(_cipheredMessage, that._cipheredMessage) && Arrays.equals(_signature, that._signature);
     }
 
     @Override
     public int hashCode() {
-        return Objects.hash(_senderId, _cipheredMessage, _signature);
+        int result = Objects.hash(_senderId);
+        result = 31 * result + Arrays.hashCode(_cipheredMessage);
+        result = 31 * result + Arrays.hashCode(_signature);
+        return result;
     }
 
     /* ========================================================== */
@@ -0,0 +1,81 @@
+package pt.tecnico.sec.contract;
+
+import org.springframework.http.HttpInputMessage;
+import org.springframework.http.HttpOutputMessage;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.AbstractHttpMessageConverter;
+import org.springframework.http.converter.HttpMessageNotReadableException;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/*
+ * Binary envelope for SecureMessage, negotiated through 'application/octet-stream':
+ *   [senderId:int][cipheredMessage length:int][cipheredMessage][signature length:int][signature]
+ * A length of -1 stands for a null field. JSON keeps working for peers that do not ask for it.
+ */
+public class SecureMessageConverter extends AbstractHttpMessageConverter<SecureMessage> {
+
+    private static final int MAX_FIELD_LENGTH = 16 * 1024 * 1024;
+
+    public SecureMessageConverter() {
+        super(MediaType.APPLICATION_OCTET_STREAM);
+    }
+
+    @Override
+    protected boolean supports(Class<?> clazz) {
+        return SecureMessage.class.equals(clazz);
+    }
+
+    @Override
+    protected SecureMessage readInternal(Class<? extends SecureMessage> clazz, HttpInputMessage inputMessage) throws IOException {
+        DataInputStream in = new DataInputStream(inputMessage.getBody());
+        int senderId = in.readInt();
+        byte[] cipheredMessage = readField(in, inputMessage);
+        byte[] signature = readField(in, inputMessage);
+        return new SecureMessage(senderId, cipheredMessage, signature);
+    }
+
+    @Override
+    protected void writeInternal(SecureMessage secureMessage, HttpOutputMessage outputMessage) throws IOException {
+        DataOutputStream out = new DataOutputStream(outputMessage.getBody());
+        out.writeInt(secureMessage.get_senderId());
+        writeField(out, secureMessage.get_cipheredMessage());
+        writeField(out, secureMessage.get_signature());
+        out.flush();
+    }
+
+    @Override
+    protected Long getContentLength(SecureMessage secureMessage, MediaType contentType) {
+        return (long) (Integer.BYTES * 3 + length(secureMessage.get_cipheredMessage()) + length(secureMessage.get_signature()));
+    }
+
+    /* ========================================================== */
+    /* ====[                   Auxiliary                    ]==== */
+    /* ========================================================== */
+
+    private static byte[] readField(DataInputStream in, HttpInputMessage inputMessage) throws IOException {
+        int length = in.readInt();
+        if (length == -1) return null;
+        if (length < 0 || length > MAX_FIELD_LENGTH)
+            throw new HttpMessageNotReadableException("Invalid field length in secure message", inputMessage);
+        byte[] field = new byte[length];
+        in.readFully(field);
+        return field;
+    }
+
+    private static void writeField(DataOutputStream out, byte[] field) throws IOException {
+        if (field == null) {
+            out.writeInt(-1);
+            return;
+        }
+        out.writeInt(field.length);
+        out.write(field);
+    }
+
+    private static int length(byte[] field) {
+        return (field != null) ? field.length : 0;
+    }
+
+}
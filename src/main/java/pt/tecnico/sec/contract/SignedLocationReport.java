@@ -1,7 +1,6 @@
 package pt.tecnico.sec.contract;
 
 import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
-import com.fasterxml.jackson.databind.ObjectMapper;
 import pt.tecnico.sec.client.report.LocationProof;
 import pt.tecnico.sec.client.report.LocationReport;
 import pt.tecnico.sec.keys.CryptoRSA;
@@ -42,8 +41,7 @@ public class SignedLocationReport {
 
     // convert from bytes
     public static SignedLocationReport getFromBytes(byte[] reportBytes) throws IOException {
-        ObjectMapper objectMapper = new ObjectMapper();
-        return objectMapper.readValue(reportBytes, SignedLocationReport.class);
+        return ObjectMapperHandler.readValue(reportBytes, SignedLocationReport.class);
     }
 
     public LocationReport get_report() {
@@ -76,7 +74,7 @@ public class SignedLocationReport {
 
     public void verify(PublicKey verifyKey) throws Exception {
         byte[] bytes = ObjectMapperHandler.writeValueAsBytes(_report);
-        if (_signature == null || !CryptoRSA.verify(bytes, _signature, verifyKey))
+        if (_signature == null || !CryptoRSA.verifyCached(bytes, _signature, verifyKey))
             throw new IllegalArgumentException("Signature verify failed!");
     }
 
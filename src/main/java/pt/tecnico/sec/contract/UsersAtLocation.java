@@ -1,7 +1,6 @@
 package pt.tecnico.sec.contract;
 
 import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
-import com.fasterxml.jackson.databind.ObjectMapper;
 import pt.tecnico.sec.client.report.Location;
 import pt.tecnico.sec.client.report.LocationReport;
 
@@ -28,8 +27,7 @@ public class UsersAtLocation {
 
     // convert from bytes
     public static UsersAtLocation getFromBytes(byte[] userListBytes) throws IOException {
-        ObjectMapper objectMapper = new ObjectMapper();
-        return objectMapper.readValue(userListBytes, UsersAtLocation.class);
+        return ObjectMapperHandler.readValue(userListBytes, UsersAtLocation.class);
     }
 
     public Location get_location() {
@@ -1,8 +1,8 @@
 package pt.tecnico.sec.contract;
 
-import com.fasterxml.jackson.databind.ObjectMapper;
 
 import java.io.IOException;
+import java.util.Objects;
 import java.util.Set;
 
 @SuppressWarnings("unused")
@@ -19,8 +19,7 @@ public class WitnessProofsRequest {
 
     // convert from bytes
     public static WitnessProofsRequest getFromBytes(byte[] requestBytes) throws IOException {
-        ObjectMapper objectMapper = new ObjectMapper();
-        return objectMapper.readValue(requestBytes, WitnessProofsRequest.class);
+        return ObjectMapperHandler.readValue(requestBytes, WitnessProofsRequest.class);
     }
 
     public int get_userId() {
@@ -51,4 +50,17 @@ public class WitnessProofsRequest {
                 ", _epochs=" + _epochs +
                 '}';
     }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        WitnessProofsRequest that = (WitnessProofsRequest) o;
+        return _userId == that._userId && Objects.equals(_epochs, that._epochs);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(_userId, _epochs);
+    }
 }
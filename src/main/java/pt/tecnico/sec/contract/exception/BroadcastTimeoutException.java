@@ -0,0 +1,8 @@
+package pt.tecnico.sec.contract.exception;
+
+public class BroadcastTimeoutException extends RuntimeException {
+
+    public BroadcastTimeoutException(String message) {
+        super(message);
+    }
+}
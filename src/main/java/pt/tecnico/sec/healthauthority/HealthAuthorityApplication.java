@@ -55,6 +55,12 @@ public class HealthAuthorityApplication {
         }
     }
 
+    // picked up by the RestTemplateBuilder, requests then carry secure messages in the binary envelope
+    @Bean
+    public SecureMessageConverter secureMessageConverter() {
+        return new SecureMessageConverter();
+    }
+
     @Bean
     public RestTemplate restTemplate(RestTemplateBuilder builder) {
         return builder.build();
@@ -120,6 +126,7 @@ public class HealthAuthorityApplication {
                 // no line was found by the scanner -> exit client
             }
 
+            _keyStore.close(); // store pending secret keys
             exit(0);
         };
     }
@@ -1,13 +1,29 @@
 package pt.tecnico.sec.keys;
 
-import javax.crypto.*;
+import javax.crypto.Cipher;
+import javax.crypto.KeyGenerator;
+import javax.crypto.SecretKey;
 import javax.crypto.spec.IvParameterSpec;
 import javax.crypto.spec.SecretKeySpec;
 import java.security.*;
-import java.util.Base64;
 
 public class AESKeyGenerator {
 
+    private static final int CACHED_KEYS = 16; // per thread
+    private static final byte[] IV = {0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0};
+
+    private static final CryptoEngineCache<Cipher> _encryptCiphers = new CryptoEngineCache<>(CACHED_KEYS, key -> {
+        Cipher cipher = Cipher.getInstance("AES/CBC/PKCS5Padding");
+        cipher.init(Cipher.ENCRYPT_MODE, key, new IvParameterSpec(IV));
+        return cipher;
+    });
+
+    private static final CryptoEngineCache<Cipher> _decryptCiphers = new CryptoEngineCache<>(CACHED_KEYS, key -> {
+        Cipher cipher = Cipher.getInstance("AES/CBC/PKCS5PADDING");
+        cipher.init(Cipher.DECRYPT_MODE, key, new IvParameterSpec(IV));
+        return cipher;
+    });
+
     /* ========================================================== */
     /* ====[                   Manage Key                   ]==== */
     /* ========================================================== */
@@ -38,22 +54,24 @@ public class AESKeyGenerator {
     /* ====[                Encrypt/Decrypt                 ]==== */
     /* ========================================================== */
 
-    public static String encrypt(byte[] data, SecretKey key) throws BadPaddingException, IllegalBlockSizeException, InvalidKeyException, NoSuchPaddingException, NoSuchAlgorithmException, InvalidAlgorithmParameterException {
-        byte[] iv = {0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0};
-        IvParameterSpec ivspec = new IvParameterSpec(iv);
-        Cipher cipher = Cipher.getInstance("AES/CBC/PKCS5Padding");
-        cipher.init(Cipher.ENCRYPT_MODE, key, ivspec);
-        byte[] cipherText = cipher.doFinal(data);
-        return Base64.getEncoder().encodeToString(cipherText);
+    public static byte[] encrypt(byte[] data, SecretKey key) throws GeneralSecurityException {
+        try {
+            Cipher cipher = _encryptCiphers.get(key);
+            return cipher.doFinal(data);
+        } catch (GeneralSecurityException e) {
+            _encryptCiphers.evict(key);
+            throw e;
+        }
     }
 
-    public static byte[] decrypt(String cipherText, SecretKey key) throws NoSuchPaddingException, NoSuchAlgorithmException, InvalidKeyException, BadPaddingException, IllegalBlockSizeException, InvalidAlgorithmParameterException {
-        byte[] iv = {0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0};
-        IvParameterSpec ivspec = new IvParameterSpec(iv);
-        byte[] bytes = Base64.getDecoder().decode(cipherText);
-        Cipher cipher = Cipher.getInstance("AES/CBC/PKCS5PADDING");
-        cipher.init(Cipher.DECRYPT_MODE, key, ivspec);
-        return cipher.doFinal(bytes);
+    public static byte[] decrypt(byte[] cipherText, SecretKey key) throws GeneralSecurityException {
+        try {
+            Cipher cipher = _decryptCiphers.get(key);
+            return cipher.doFinal(cipherText);
+        } catch (GeneralSecurityException e) {
+            _decryptCiphers.evict(key);
+            throw e;
+        }
     }
 
 
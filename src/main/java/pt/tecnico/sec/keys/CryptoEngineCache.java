@@ -0,0 +1,43 @@
+package pt.tecnico.sec.keys;
+
+import java.security.GeneralSecurityException;
+import java.security.Key;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// Keeps, per thread, the most recently used Signature/Cipher objects already initialized with a given key,
+// so that provider lookup and key setup are not repeated on every message
+public class CryptoEngineCache<T> {
+
+    public interface EngineFactory<T> {
+        T create(Key key) throws GeneralSecurityException;
+    }
+
+    private final EngineFactory<T> _factory;
+    private final ThreadLocal<Map<Key, T>> _engines;
+
+    public CryptoEngineCache(int maxKeys, EngineFactory<T> factory) {
+        _factory = factory;
+        _engines = ThreadLocal.withInitial(() -> new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, T> eldest) {
+                return size() > maxKeys;
+            }
+        });
+    }
+
+    public T get(Key key) throws GeneralSecurityException {
+        Map<Key, T> engines = _engines.get();
+        T engine = engines.get(key);
+        if (engine == null) {
+            engine = _factory.create(key);
+            engines.put(key, engine);
+        }
+        return engine;
+    }
+
+    // Drops an engine that may have been left in an unknown state (e.g. after a failed operation)
+    public void evict(Key key) {
+        _engines.get().remove(key);
+    }
+}
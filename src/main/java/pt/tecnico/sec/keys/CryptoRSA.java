@@ -2,31 +2,65 @@ package pt.tecnico.sec.keys;
 
 import pt.tecnico.sec.contract.exception.InvalidSignatureException;
 
-import javax.crypto.BadPaddingException;
 import javax.crypto.Cipher;
-import javax.crypto.IllegalBlockSizeException;
-import javax.crypto.NoSuchPaddingException;
+import java.nio.ByteBuffer;
 import java.security.*;
 import java.util.Base64;
 
 public class CryptoRSA {
 
-    /* ========================================================== */
-    /* ====[                Encrypt/Decrypt                 ]==== */
-    /* ========================================================== */
+    private static final int CACHED_KEYS = 16; // per thread
+    private static final int CACHED_SIGNATURES = 8192;
 
-    public static String encrypt(byte[] data, PublicKey key) throws BadPaddingException, IllegalBlockSizeException, InvalidKeyException, NoSuchPaddingException, NoSuchAlgorithmException {
+    // report and proof signatures travel through every broadcast phase, each is only verified once per node
+    private static final VerifiedSignatureCache _verifiedSignatures = new VerifiedSignatureCache(CACHED_SIGNATURES);
+
+    private static final CryptoEngineCache<Cipher> _encryptCiphers = new CryptoEngineCache<>(CACHED_KEYS, key -> {
         Cipher cipher = Cipher.getInstance("RSA");
         cipher.init(Cipher.ENCRYPT_MODE, key);
-        byte[] cipherText = cipher.doFinal(data);
-        return Base64.getEncoder().encodeToString(cipherText);
-    }
+        return cipher;
+    });
 
-    public static byte[] decrypt(String cipherText, PrivateKey key) throws NoSuchPaddingException, NoSuchAlgorithmException, InvalidKeyException, BadPaddingException, IllegalBlockSizeException {
-        byte[] bytes = Base64.getDecoder().decode(cipherText);
+    private static final CryptoEngineCache<Cipher> _decryptCiphers = new CryptoEngineCache<>(CACHED_KEYS, key -> {
         Cipher cipher = Cipher.getInstance("RSA");
         cipher.init(Cipher.DECRYPT_MODE, key);
-        return cipher.doFinal(bytes);
+        return cipher;
+    });
+
+    private static final CryptoEngineCache<Signature> _signers = new CryptoEngineCache<>(CACHED_KEYS, key -> {
+        Signature privateSignature = Signature.getInstance("SHA256withRSA");
+        privateSignature.initSign((PrivateKey) key);
+        return privateSignature;
+    });
+
+    private static final CryptoEngineCache<Signature> _verifiers = new CryptoEngineCache<>(CACHED_KEYS, key -> {
+        Signature publicSignature = Signature.getInstance("SHA256withRSA");
+        publicSignature.initVerify((PublicKey) key);
+        return publicSignature;
+    });
+
+    /* ========================================================== */
+    /* ====[                Encrypt/Decrypt                 ]==== */
+    /* ========================================================== */
+
+    public static byte[] encrypt(byte[] data, PublicKey key) throws GeneralSecurityException {
+        try {
+            Cipher cipher = _encryptCiphers.get(key);
+            return cipher.doFinal(data);
+        } catch (GeneralSecurityException e) {
+            _encryptCiphers.evict(key);
+            throw e;
+        }
+    }
+
+    public static byte[] decrypt(byte[] cipherText, PrivateKey key) throws GeneralSecurityException {
+        try {
+            Cipher cipher = _decryptCiphers.get(key);
+            return cipher.doFinal(cipherText);
+        } catch (GeneralSecurityException e) {
+            _decryptCiphers.evict(key);
+            throw e;
+        }
     }
 
     /* ========================================================== */
@@ -34,23 +68,54 @@ public class CryptoRSA {
     /* ========================================================== */
 
     public static String sign(byte[] data, PrivateKey key) throws Exception {
-        Signature privateSignature = Signature.getInstance("SHA256withRSA");
-        privateSignature.initSign(key);
-        privateSignature.update(data);
-        byte[] signatureBytes = privateSignature.sign();
-        return Base64.getEncoder().encodeToString(signatureBytes);
+        return Base64.getEncoder().encodeToString(signBytes(data, key));
+    }
+
+    public static byte[] signBytes(byte[] data, PrivateKey key) throws GeneralSecurityException {
+        try {
+            Signature privateSignature = _signers.get(key);
+            privateSignature.update(data);
+            return privateSignature.sign(); // also resets the signature for the next use
+        } catch (GeneralSecurityException e) {
+            _signers.evict(key);
+            throw e;
+        }
     }
 
     @SuppressWarnings("BooleanMethodIsAlwaysInverted")
     public static boolean verify(byte[] data, String signature, PublicKey key) {
+        byte[] signatureBytes;
+        try {
+            signatureBytes = Base64.getDecoder().decode(signature);
+        }
+        catch (Exception e) {
+            throw new InvalidSignatureException("Invalid signature");
+        }
+        return verify(data, signatureBytes, key);
+    }
+
+    // same as verify, remembering successful verifications of the same data, signature and key
+    @SuppressWarnings("BooleanMethodIsAlwaysInverted")
+    public static boolean verifyCached(byte[] data, String signature, PublicKey key) {
+        if (signature == null || key == null)
+            return verify(data, signature, key);
+        ByteBuffer cacheKey = _verifiedSignatures.key(data, signature, key);
+        if (_verifiedSignatures.contains(cacheKey))
+            return true;
+        boolean valid = verify(data, signature, key);
+        if (valid) _verifiedSignatures.add(cacheKey);
+        return valid;
+    }
+
+    @SuppressWarnings("BooleanMethodIsAlwaysInverted")
+    public static boolean verify(byte[] data, byte[] signature, PublicKey key) {
         try {
-            Signature publicSignature = Signature.getInstance("SHA256withRSA");
-            publicSignature.initVerify(key);
+            Signature publicSignature = _verifiers.get(key);
             publicSignature.update(data);
-            byte[] signatureBytes = Base64.getDecoder().decode(signature);
-            return publicSignature.verify(signatureBytes);
+            return publicSignature.verify(signature); // also resets the signature for the next use
         }
         catch (Exception e) {
+            _verifiers.evict(key);
             throw new InvalidSignatureException("Invalid signature");
         }
 
@@ -12,6 +12,12 @@ import java.security.cert.CertificateException;
 import java.util.ArrayList;
 import java.util.Enumeration;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import static pt.tecnico.sec.Constants.*;
 
@@ -25,6 +31,19 @@ public class JavaKeyStore {
     private final String _name;
     private final String _password;
 
+    // Decoded keys, so that lookups do not go through the PKCS12 entries on every request
+    private final Map<String, SecretKey> _secretKeys = new ConcurrentHashMap<>();
+    private final Map<String, PrivateKey> _privateKeys = new ConcurrentHashMap<>();
+    private final Map<String, PublicKey> _publicKeys = new ConcurrentHashMap<>();
+    private volatile List<PublicKey> _usersPublicKeys = null;
+    private final Map<Integer, List<PublicKey>> _personalUsersPublicKeys = new ConcurrentHashMap<>();
+
+    // Write-behind of secret key updates: the file is rewritten at most once per KEYSTORE_FLUSH_DELAY
+    private volatile boolean _writeBehind = KEYSTORE_WRITE_BEHIND;
+    private final AtomicBoolean _dirty = new AtomicBoolean(false);
+    private final AtomicBoolean _flushScheduled = new AtomicBoolean(false);
+    private ScheduledExecutorService _flusher = null;
+
     public JavaKeyStore(String keyStoreType, String keyStorePassword, String keyStoreName) {
         _name = KEYSTORE_DIRECTORY + keyStoreName;
         _type = keyStoreType;
@@ -51,11 +70,15 @@ public class JavaKeyStore {
         }
     }
 
-    public void storeKeyStore() throws IOException, CertificateException, KeyStoreException, NoSuchAlgorithmException {
+    public synchronized void storeKeyStore() throws IOException, CertificateException, KeyStoreException, NoSuchAlgorithmException {
+        _dirty.set(false); // cleared first, updates made while writing mark it again
         char[] pwdArray = _password.toCharArray();
         // Save the KeyStore
         try (FileOutputStream fos = new FileOutputStream(_name)) {
             _keyStore.store(fos, pwdArray);
+        } catch (IOException | CertificateException | KeyStoreException | NoSuchAlgorithmException | RuntimeException e) {
+            _dirty.set(true); // not on disk, the next flush retries
+            throw e;
         }
     }
 
@@ -65,9 +88,19 @@ public class JavaKeyStore {
             _keyStore = KeyStore.getInstance(_type);
         }
         _keyStore.load(new FileInputStream(_name), pwdArray);
+        clearKeyCache();
+    }
+
+    // Forget every decoded key, they will be read again from the KeyStore
+    public void clearKeyCache() {
+        _secretKeys.clear();
+        _privateKeys.clear();
+        _publicKeys.clear();
+        _usersPublicKeys = null;
+        _personalUsersPublicKeys.clear();
     }
 
-    public void setEntry(String alias, SecretKey secretKey) throws KeyStoreException {
+    public synchronized void setEntry(String alias, SecretKey secretKey) throws KeyStoreException {
         KeyStore.SecretKeyEntry secretKeyEntry = new KeyStore.SecretKeyEntry(secretKey);
         KeyStore.ProtectionParameter protectionParameter = new KeyStore.PasswordProtection(_password.toCharArray());
         _keyStore.setEntry(alias, secretKeyEntry, protectionParameter);
@@ -80,10 +113,12 @@ public class JavaKeyStore {
 
     public void setKeyEntry(String alias, PrivateKey privateKey, String keyPassword, Certificate[] certificateChain) throws KeyStoreException {
         _keyStore.setKeyEntry(alias, privateKey, keyPassword.toCharArray(), certificateChain);
+        clearKeyCache();
     }
 
     public void setCertificateEntry(String alias, Certificate certificate) throws KeyStoreException {
         _keyStore.setCertificateEntry(alias, certificate);
+        clearKeyCache();
     }
 
     public Certificate getCertificate(String alias) throws KeyStoreException {
@@ -105,26 +140,92 @@ public class JavaKeyStore {
     public void setAndStoreSecretKey(String alias, SecretKey secretKey) throws KeyStoreException, CertificateException, IOException, NoSuchAlgorithmException {
         alias = "secret" + alias;
         setEntry(alias, secretKey);
-        storeKeyStore();
+        _secretKeys.put(alias, secretKey);
+        if (_writeBehind) scheduleFlush();
+        else storeKeyStore();
+    }
+
+    /* ===========[        WRITE-BEHIND        ]=========== */
+
+    // false: every secret key update is written to disk before returning
+    public void setWriteBehind(boolean writeBehind) throws CertificateException, KeyStoreException, IOException, NoSuchAlgorithmException {
+        _writeBehind = writeBehind;
+        if (!writeBehind) flush();
+    }
+
+    public boolean isWriteBehind() {
+        return _writeBehind;
+    }
+
+    private synchronized void scheduleFlush() {
+        _dirty.set(true);
+        if (!_flushScheduled.compareAndSet(false, true)) return; // coalesce with the pending flush
+        if (_flusher == null) {
+            _flusher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "keystore-flusher");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        _flusher.schedule(() -> {
+            _flushScheduled.set(false);
+            try {
+                flush();
+            } catch (Exception e) {
+                System.out.println("Could not store key store, retrying: " + e.getMessage());
+                scheduleFlush();
+            }
+        }, KEYSTORE_FLUSH_DELAY, TimeUnit.MILLISECONDS);
+    }
+
+    // Writes pending secret key updates to disk
+    public void flush() throws CertificateException, KeyStoreException, IOException, NoSuchAlgorithmException {
+        if (_dirty.get()) storeKeyStore();
+    }
+
+    // Flushes pending updates and stops the background flusher
+    public synchronized void close() throws CertificateException, KeyStoreException, IOException, NoSuchAlgorithmException {
+        if (_flusher != null) {
+            _flusher.shutdownNow();
+            _flusher = null;
+            _flushScheduled.set(false);
+        }
+        flush();
     }
 
     public SecretKey getSecretKey(String alias) throws KeyStoreException, UnrecoverableEntryException, NoSuchAlgorithmException {
         alias = "secret" + alias;
+        SecretKey secretKey = _secretKeys.get(alias);
+        if (secretKey != null) return secretKey;
+
         KeyStore.SecretKeyEntry secretKeyEntry = (KeyStore.SecretKeyEntry) getEntry(alias);
         if (secretKeyEntry == null) return null;
-        return secretKeyEntry.getSecretKey();
+        secretKey = secretKeyEntry.getSecretKey();
+        // a key set by setAndStoreSecretKey since the entry was read is newer, keep it
+        SecretKey cached = _secretKeys.putIfAbsent(alias, secretKey);
+        return (cached != null) ? cached : secretKey;
     }
 
     public PrivateKey getPrivateKey(String alias) throws KeyStoreException, UnrecoverableEntryException, NoSuchAlgorithmException {
+        PrivateKey privateKey = _privateKeys.get(alias);
+        if (privateKey != null) return privateKey;
+
         KeyStore.PrivateKeyEntry privateKeyEntry = (KeyStore.PrivateKeyEntry) getEntry(alias);
         if (privateKeyEntry == null) return null;
-        return privateKeyEntry.getPrivateKey();
+        privateKey = privateKeyEntry.getPrivateKey();
+        _privateKeys.put(alias, privateKey);
+        return privateKey;
     }
 
     public PublicKey getPublicKey(String alias) throws KeyStoreException {
+        PublicKey publicKey = _publicKeys.get(alias);
+        if (publicKey != null) return publicKey;
+
         Certificate certificate = getCertificate(alias);
         if (certificate == null) return null;
-        return certificate.getPublicKey();
+        publicKey = certificate.getPublicKey();
+        _publicKeys.put(alias, publicKey);
+        return publicKey;
     }
 
     public KeyPair getKeyPair(String certificateAlias, String privateKeyAlias) throws KeyStoreException, UnrecoverableEntryException, NoSuchAlgorithmException {
@@ -146,30 +247,43 @@ public class JavaKeyStore {
         return getKeyPair(KEYSTORE_CERTIFICATE, KEYSTORE_PRIVATE_KEY);
     }
 
+    // Immutable list of the users' public keys, indexed by user id
     public List<PublicKey> getAllUsersPublicKeys(int personalId) throws KeyStoreException {
+        List<PublicKey> usersPublicKeys = _personalUsersPublicKeys.get(personalId);
+        if (usersPublicKeys != null) return usersPublicKeys;
+
         List<PublicKey> publicKeyArray = new ArrayList<>();
         PublicKey publicKey = (personalId == 0) ? getPersonalPublicKey() : getPublicKey("user" + 0);
         for (int userId = 1; publicKey != null; userId++) {
             publicKeyArray.add(publicKey);
             publicKey = (personalId == userId) ? getPersonalPublicKey() : getPublicKey("user" + userId);
         }
-        return publicKeyArray;
+        usersPublicKeys = List.copyOf(publicKeyArray);
+        _personalUsersPublicKeys.put(personalId, usersPublicKeys);
+        return usersPublicKeys;
     }
 
+    // Immutable list of the users' public keys, indexed by user id
     public List<PublicKey> getAllUsersPublicKeys() throws KeyStoreException {
+        List<PublicKey> usersPublicKeys = _usersPublicKeys;
+        if (usersPublicKeys != null) return usersPublicKeys;
+
         List<PublicKey> publicKeyArray = new ArrayList<>();
         PublicKey publicKey = getPublicKey("user" + 0);
         for (int userId = 1; publicKey != null; userId++) {
             publicKeyArray.add(publicKey);
             publicKey = getPublicKey("user" + userId);
         }
-        return publicKeyArray;
+        usersPublicKeys = List.copyOf(publicKeyArray);
+        _usersPublicKeys = usersPublicKeys;
+        return usersPublicKeys;
     }
 
     /* ===========[           DELETE           ]=========== */
 
     public void deleteEntry(String alias) throws KeyStoreException {
         _keyStore.deleteEntry(alias);
+        clearKeyCache();
     }
 
     public void deleteKeyStore() throws KeyStoreException, IOException {
@@ -179,6 +293,7 @@ public class JavaKeyStore {
             _keyStore.deleteEntry(alias);
         }
         _keyStore = null;
+        clearKeyCache();
         Files.delete(Paths.get(_name));
     }
 
@@ -0,0 +1,60 @@
+package pt.tecnico.sec.keys;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.PublicKey;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// Bounded LRU of signatures that were verified successfully, keyed by a SHA-256 of (data, signature, signer)
+public class VerifiedSignatureCache {
+
+    private static final ThreadLocal<MessageDigest> _digests = ThreadLocal.withInitial(() -> {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    });
+
+    private final Map<ByteBuffer, Boolean> _verified;
+
+    public VerifiedSignatureCache(int capacity) {
+        _verified = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<ByteBuffer, Boolean> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    public ByteBuffer key(byte[] data, String signature, PublicKey key) {
+        MessageDigest digest = _digests.get();
+        update(digest, data);
+        update(digest, signature.getBytes(StandardCharsets.US_ASCII));
+        update(digest, key.getEncoded());
+        return ByteBuffer.wrap(digest.digest()); // also resets the digest for the next use
+    }
+
+    public boolean contains(ByteBuffer key) {
+        synchronized (_verified) {
+            return _verified.get(key) != null;
+        }
+    }
+
+    public void add(ByteBuffer key) {
+        synchronized (_verified) {
+            _verified.put(key, Boolean.TRUE);
+        }
+    }
+
+    // each field is length-prefixed, so different splits of the same bytes never collide
+    private static void update(MessageDigest digest, byte[] field) {
+        int length = field.length;
+        digest.update(new byte[] { (byte) (length >>> 24), (byte) (length >>> 16), (byte) (length >>> 8), (byte) length });
+        digest.update(field);
+    }
+
+}
@@ -0,0 +1,147 @@
+package pt.tecnico.sec.server;
+
+import pt.tecnico.sec.client.report.LocationProof;
+import pt.tecnico.sec.client.report.LocationReport;
+import pt.tecnico.sec.contract.exception.ReportNotAcceptableException;
+
+import java.security.PublicKey;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Predicate;
+
+import static pt.tecnico.sec.Constants.F_USERS;
+import static pt.tecnico.sec.Constants.PARALLEL_VERIFY_THRESHOLD;
+
+// Verifies the proofs of location reports, spreading the signature checks of a report across cores
+public class ProofVerifier {
+
+    public enum Stage { REPORT_SIGNATURE, ALL_PROOFS, ENOUGH_PROOFS, WITNESS_PROOF }
+
+    private final ForkJoinPool _pool;
+    private final LongAdder[] _stageNanos = new LongAdder[Stage.values().length];
+    private final LongAdder[] _stageCounts = new LongAdder[Stage.values().length];
+
+    public ProofVerifier(int parallelism) {
+        _pool = new ForkJoinPool(parallelism);
+        for (int i = 0; i < _stageNanos.length; i++) {
+            _stageNanos[i] = new LongAdder();
+            _stageCounts[i] = new LongAdder();
+        }
+    }
+
+    /* ========================================================== */
+    /* ====[                  Verification                  ]==== */
+    /* ========================================================== */
+
+    // Every proof must be valid and from a distinct witness, and there must be more than F_USERS of them
+    public void verifyAll(LocationReport report, List<PublicKey> publicKeys) {
+        long start = System.nanoTime();
+        try {
+            List<LocationProof> proofs = report.get_proofs();
+            Set<Integer> witnessIds = new HashSet<>();
+            for (LocationProof proof : proofs)
+                if (!witnessIds.add(proof.get_witnessId()))
+                    throw new ReportNotAcceptableException("Invalid LocationProof: " + proof);
+
+            LocationProof invalid = findAny(proofs, proof -> !isValid(report, proof, publicKeys));
+            if (invalid != null)
+                throw new ReportNotAcceptableException("Invalid LocationProof: " + invalid);
+            if (proofs.size() <= F_USERS)
+                throw new ReportNotAcceptableException("Not enough proofs to constitute an acceptable Location Report");
+        }
+        finally {
+            record(Stage.ALL_PROOFS, start);
+        }
+    }
+
+    // Stops as soon as more than F_USERS distinct witnesses have valid proofs, for reads where any of them will do
+    public void verifyEnough(LocationReport report, List<PublicKey> publicKeys) {
+        long start = System.nanoTime();
+        try {
+            Set<Integer> validWitnesses = ConcurrentHashMap.newKeySet();
+            LocationProof enough = findAny(report.get_proofs(), proof -> isValid(report, proof, publicKeys)
+                    && validWitnesses.add(proof.get_witnessId()) && validWitnesses.size() > F_USERS);
+            if (enough == null)
+                throw new ReportNotAcceptableException("Not enough proofs to constitute an acceptable Location Report");
+        }
+        finally {
+            record(Stage.ENOUGH_PROOFS, start);
+        }
+    }
+
+    // The proof of the given witness must be in the report and valid, regardless of how many other proofs are
+    public void verifyWitness(LocationReport report, int witnessId, List<PublicKey> publicKeys) {
+        long start = System.nanoTime();
+        try {
+            LocationProof proof = report.get_witness_proof(witnessId);
+            if (proof == null || !isValid(report, proof, publicKeys))
+                throw new ReportNotAcceptableException("Invalid LocationProof of witness " + witnessId);
+        }
+        finally {
+            record(Stage.WITNESS_PROOF, start);
+        }
+    }
+
+    // returns any proof matching the predicate, or null, checking the proofs in parallel on larger reports
+    private LocationProof findAny(List<LocationProof> proofs, Predicate<LocationProof> predicate) {
+        if (proofs.size() < PARALLEL_VERIFY_THRESHOLD)
+            return proofs.stream().filter(predicate).findAny().orElse(null);
+        try {
+            return _pool.submit(() -> proofs.parallelStream().filter(predicate).findAny().orElse(null)).get();
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ReportNotAcceptableException("Interrupted while verifying proofs");
+        }
+        catch (ExecutionException e) {
+            throw new ReportNotAcceptableException("Error verifying proofs: " + e.getCause().getMessage());
+        }
+    }
+
+    private static boolean isValid(LocationReport report, LocationProof proof, List<PublicKey> publicKeys) {
+        try {
+            int witnessId = proof.get_witnessId();
+            if (witnessId < 0 || witnessId >= publicKeys.size()) return false;
+            return report.isProofValid(proof, publicKeys.get(witnessId));
+        }
+        catch (Exception e) {
+            return false;
+        }
+    }
+
+    /* ========================================================== */
+    /* ====[                     Timings                    ]==== */
+    /* ========================================================== */
+
+    public void record(Stage stage, long startNanos) {
+        _stageNanos[stage.ordinal()].add(System.nanoTime() - startNanos);
+        _stageCounts[stage.ordinal()].increment();
+    }
+
+    public long get_count(Stage stage) {
+        return _stageCounts[stage.ordinal()].sum();
+    }
+
+    // average time spent in the stage, in microseconds
+    public double get_averageMicros(Stage stage) {
+        long count = get_count(stage);
+        return (count == 0) ? 0 : _stageNanos[stage.ordinal()].sum() / 1000.0 / count;
+    }
+
+    public void shutdown() {
+        _pool.shutdown();
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder("ProofVerifier{");
+        for (Stage stage : Stage.values())
+            builder.append(String.format(" %s: %d in %.1f us avg;", stage, get_count(stage), get_averageMicros(stage)));
+        return builder.append(" }").toString();
+    }
+}
@@ -0,0 +1,73 @@
+package pt.tecnico.sec.server;
+
+import pt.tecnico.sec.contract.ObtainLocationRequest;
+import pt.tecnico.sec.server.database.DBLocationReport;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Bounded LRU of the highest-timestamp report stored for each (user, epoch)
+public class ReportCache {
+
+    private final Map<ObtainLocationRequest, DBLocationReport> _reports;
+    private final AtomicLong _hits = new AtomicLong();
+    private final AtomicLong _misses = new AtomicLong();
+
+    public ReportCache(int capacity) {
+        _reports = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<ObtainLocationRequest, DBLocationReport> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    // returns null on a miss
+    public DBLocationReport get(int userId, int epoch) {
+        DBLocationReport report;
+        synchronized (_reports) {
+            report = _reports.get(new ObtainLocationRequest(userId, epoch));
+        }
+        if (report != null) _hits.incrementAndGet();
+        else _misses.incrementAndGet();
+        return report;
+    }
+
+    // keeps whichever report has the highest timestamp
+    public void put(DBLocationReport report) {
+        ObtainLocationRequest key = new ObtainLocationRequest(report.get_userId(), report.get_epoch());
+        synchronized (_reports) {
+            _reports.merge(key, report, (cached, given) -> given.get_timestamp() > cached.get_timestamp() ? given : cached);
+        }
+    }
+
+    public void clear() {
+        synchronized (_reports) {
+            _reports.clear();
+        }
+    }
+
+    public int size() {
+        synchronized (_reports) {
+            return _reports.size();
+        }
+    }
+
+    public long get_hits() {
+        return _hits.get();
+    }
+
+    public long get_misses() {
+        return _misses.get();
+    }
+
+    @Override
+    public String toString() {
+        return "ReportCache{" +
+                "_size=" + size() +
+                ", _hits=" + get_hits() +
+                ", _misses=" + get_misses() +
+                '}';
+    }
+}
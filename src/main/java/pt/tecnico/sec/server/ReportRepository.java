@@ -1,13 +1,32 @@
 package pt.tecnico.sec.server;
 
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.CrudRepository;
 import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
 import pt.tecnico.sec.server.database.DBLocationReport;
 
+import java.util.Collection;
+import java.util.List;
+
 
 public interface ReportRepository extends CrudRepository<DBLocationReport, Integer> {
 
     @Query(value = "SELECT * FROM dblocation_report WHERE _epoch = ?2 and _user_id = ?1 ", nativeQuery = true)
     DBLocationReport findReportByEpochAndUser(@Param("userId") int userId, @Param("epoch") int epoch);
+
+    @Query(value = "SELECT * FROM dblocation_report WHERE _epoch = ?1 AND _x = ?2 AND _y = ?3 ", nativeQuery = true)
+    List<DBLocationReport> findReportsByEpochAndLocation(@Param("epoch") int epoch, @Param("x") int x, @Param("y") int y);
+
+    // Reports holding a proof signed by the given witness, found through the witness index
+    @Query(value = "SELECT r.* FROM dblocation_report r JOIN dbwitness_proof w ON w._prover_id = r._user_id AND w._epoch = r._epoch " +
+            "WHERE w._witness_id = ?1 AND w._epoch IN ?2 ", nativeQuery = true)
+    List<DBLocationReport> findReportsByWitnessAndEpochs(@Param("witnessId") int witnessId, @Param("epochs") Collection<Integer> epochs);
+
+    // Replaces the stored report in a single statement, only if the given timestamp is greater
+    @Modifying
+    @Transactional
+    @Query(value = "UPDATE dblocation_report SET _timestamp = ?3, _x = ?4, _y = ?5, _proofs = ?6, _signature = ?7 WHERE _user_id = ?1 AND _epoch = ?2 AND _timestamp < ?3 ", nativeQuery = true)
+    int replaceReportIfGreater(@Param("userId") int userId, @Param("epoch") int epoch, @Param("timestamp") int timestamp, @Param("x") int x, @Param("y") int y, @Param("proofs") byte[] proofs, @Param("signature") String signature);
 }
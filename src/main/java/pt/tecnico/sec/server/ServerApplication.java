@@ -1,26 +1,38 @@
 package pt.tecnico.sec.server;
 
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
 import org.springframework.http.HttpEntity;
+import org.springframework.http.client.HttpComponentsClientHttpRequestFactory;
 import org.springframework.web.client.RestTemplate;
 import pt.tecnico.sec.client.report.LocationReport;
 import pt.tecnico.sec.contract.*;
-import pt.tecnico.sec.contract.exception.ReportNotAcceptableException;
 import pt.tecnico.sec.keys.AESKeyGenerator;
 import pt.tecnico.sec.keys.CryptoRSA;
 import pt.tecnico.sec.keys.JavaKeyStore;
 import pt.tecnico.sec.server.broadcast.BroadcastId;
 import pt.tecnico.sec.server.broadcast.BroadcastMessage;
+import pt.tecnico.sec.server.broadcast.BroadcastRegistry;
 import pt.tecnico.sec.server.broadcast.BroadcastService;
 import pt.tecnico.sec.server.database.DBLocationReport;
 
+import javax.annotation.PreDestroy;
 import javax.crypto.SecretKey;
 import java.io.IOException;
 import java.security.*;
 import java.security.cert.CertificateException;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import static pt.tecnico.sec.Constants.*;
 
@@ -32,7 +44,10 @@ public class ServerApplication {
     private static int _userCount;
     private static JavaKeyStore _keyStore;
 
-    public final RestTemplate _restTemplate = new RestTemplate();
+    public final RestTemplate _restTemplate;
+    private final CloseableHttpClient _httpClient;
+    private final ExecutorService _broadcastExecutor;
+    private final ProofVerifier _proofVerifier = new ProofVerifier(PROOF_VERIFY_THREADS);
 
     private static final Map<Integer, Boolean> _secretKeysUsed = new ConcurrentHashMap<>();
     private static final Map<Integer, Long> _nounces = new ConcurrentHashMap<>();
@@ -61,6 +76,9 @@ public class ServerApplication {
             defaults.put("spring.datasource.url", "jdbc:mysql://${MYSQL_HOST:localhost}:3306/sec" + _serverId);
             defaults.put("spring.datasource.username", "user");
             defaults.put("spring.datasource.password", "pass");
+            defaults.put("sec.broadcast.threads", BROADCAST_THREADS);
+            defaults.put("sec.broadcast.max-connections", BROADCAST_MAX_CONNECTIONS);
+            defaults.put("sec.keystore.write-behind", KEYSTORE_WRITE_BEHIND);
 
             SpringApplication springApplication = new SpringApplication(ServerApplication.class);
             springApplication.setDefaultProperties(defaults);
@@ -73,6 +91,48 @@ public class ServerApplication {
     }
 
 
+    public ServerApplication(@Value("${sec.broadcast.threads}") int broadcastThreads,
+                             @Value("${sec.broadcast.max-connections}") int maxConnections,
+                             @Value("${sec.keystore.write-behind}") boolean keyStoreWriteBehind) throws Exception {
+        _keyStore.setWriteBehind(keyStoreWriteBehind);
+
+        // keep-alive connections to the other servers, shared by every request
+        // each server gets its share of the pool, so a faulty one cannot lease every connection
+        PoolingHttpClientConnectionManager connectionManager = new PoolingHttpClientConnectionManager();
+        connectionManager.setMaxTotal(maxConnections);
+        connectionManager.setDefaultMaxPerRoute(Math.max(1, maxConnections / Math.max(1, _serverCount)));
+        _httpClient = HttpClients.custom().setConnectionManager(connectionManager).build();
+
+        // a server that accepts and never answers only holds a connection and a worker until the timeout
+        HttpComponentsClientHttpRequestFactory requestFactory = new HttpComponentsClientHttpRequestFactory(_httpClient);
+        requestFactory.setConnectTimeout((int) BROADCAST_POST_TIMEOUT);
+        requestFactory.setReadTimeout((int) BROADCAST_POST_TIMEOUT);
+        requestFactory.setConnectionRequestTimeout((int) BROADCAST_POST_TIMEOUT);
+        _restTemplate = new RestTemplate(requestFactory);
+        _restTemplate.getMessageConverters().add(0, new SecureMessageConverter()); // binary envelope first
+
+        // bounded pool of workers for the broadcast posts
+        _broadcastExecutor = Executors.newFixedThreadPool(broadcastThreads);
+    }
+
+    // added by Spring Boot ahead of the default converters, serves secure messages in the binary envelope
+    @Bean
+    public SecureMessageConverter secureMessageConverter() {
+        return new SecureMessageConverter();
+    }
+
+    @PreDestroy
+    public void shutdown() throws Exception {
+        _broadcastExecutor.shutdown();
+        _proofVerifier.shutdown();
+        System.out.println(_proofVerifier); // verification timings
+        System.out.println(_broadcastRegistry);
+        System.out.println(ServerController.getReportCache()); // hits and misses
+        _httpClient.close();
+        _keyStore.close(); // store pending secret keys
+    }
+
+
     /* ========================================================== */
     /* ====[               Getters and Setters              ]==== */
     /* ========================================================== */
@@ -181,14 +241,30 @@ public class ServerApplication {
     }
 
     public void verifyDBReport(DBLocationReport report) {
+        verifyDBReport(report, true);
+    }
+
+    // reads only need more than F_USERS valid proofs, any of them, verified here rather than trusted from the replica
+    public void verifyDBReport(DBLocationReport report, boolean allProofs) {
+        verifyDBReport(report, allProofs, null);
+    }
+
+    // witness reads hand the proof of witnessId to the client, so that proof is always verified as well
+    public void verifyDBReport(DBLocationReport report, boolean allProofs, Integer witnessId) {
         try {
+            long start = System.nanoTime();
             LocationReport originalReport = new LocationReport(report);
             byte[] bytes = ObjectMapperHandler.writeValueAsBytes(originalReport);
             String sig = report.get_signature();
             PublicKey verifyKey = getPublicKey(report.get_userId());
-            if (sig == null || !CryptoRSA.verify(bytes, sig, verifyKey))
+            boolean signed = sig != null && CryptoRSA.verifyCached(bytes, sig, verifyKey);
+            _proofVerifier.record(ProofVerifier.Stage.REPORT_SIGNATURE, start);
+            if (!signed)
                 throw new IllegalArgumentException("Report signature verify failed!");
-            checkReportSignatures(originalReport);
+
+            if (allProofs) checkReportSignatures(originalReport);
+            else _proofVerifier.verifyEnough(originalReport, _keyStore.getAllUsersPublicKeys());
+            if (witnessId != null) _proofVerifier.verifyWitness(originalReport, witnessId, _keyStore.getAllUsersPublicKeys());
         } catch (Exception e) {
             throw new IllegalArgumentException("DBReport failed verification!");
         }
@@ -242,9 +318,11 @@ public class ServerApplication {
     }
 
     public void checkReportSignatures(LocationReport report) throws Exception {
-        report.verifyProofs( _keyStore.getAllUsersPublicKeys() );
-        if (report.get_proofs().size() <= F_USERS)
-            throw new ReportNotAcceptableException("Not enough proofs to constitute an acceptable Location Report");
+        _proofVerifier.verifyAll(report, _keyStore.getAllUsersPublicKeys());
+    }
+
+    public ProofVerifier getProofVerifier() {
+        return _proofVerifier;
     }
 
 
@@ -268,11 +346,16 @@ public class ServerApplication {
         return decipherAndVerifyMessage(secureResponse);
     }
 
+    // asks a server for the SEND payload behind a digest, the caller checks it against the digest
+    public byte[] fetchBroadcastPayload(int serverId, BroadcastMessage digestMessage) throws Exception {
+        Message response = postBroadcastToServer(serverId, digestMessage, "/broadcast-fetch");
+        response.throwIfException();
+        return response.retrieveBytes();
+    }
+
     public void postToServers(BroadcastMessage m, String endpoint) {
-        for (int serverId = 0; serverId < _serverCount; serverId++) {
-            AsyncPost thread = new AsyncPost(serverId, m, endpoint);
-            thread.start();
-        }
+        for (int serverId = 0; serverId < _serverCount; serverId++)
+            _broadcastExecutor.execute(new AsyncPost(serverId, m, endpoint));
     }
 
     /* ===========[        Handle Secret Keys        ]=========== */
@@ -292,9 +375,18 @@ public class ServerApplication {
 
     public void refreshServerSecretKeys() throws Exception {
 
-        if (broadcastActive()) return;
-        //System.out.println("Refreshing! " + _serverId);
+        // skip if another thread is refreshing or broadcasting
+        if (!_secretKeysLock.writeLock().tryLock()) return;
+        try {
+            if (broadcastActive()) return;
+            //System.out.println("Refreshing! " + _serverId);
+            refreshSecretKeys();
+        } finally {
+            _secretKeysLock.writeLock().unlock();
+        }
+    }
 
+    private void refreshSecretKeys() throws Exception {
         for (int serverId = 0; serverId < _serverCount; serverId++) {
 
             boolean exists = ( _secretKeysUsed.get(serverId+1000) != null );
@@ -333,48 +425,55 @@ public class ServerApplication {
     /* ====[              Double Echo Broadcast             ]==== */
     /* ========================================================== */
 
-    private int _broadcastCount = 0;
-    private final Map<BroadcastId, BroadcastService> _broadcastServices = new LinkedHashMap<>();
+    private final AtomicInteger _broadcastCount = new AtomicInteger(0);
+    private final BroadcastRegistry _broadcastRegistry = new BroadcastRegistry(this, BROADCAST_SERVICES_MAX, BROADCAST_SERVICES_TTL);
+
+    // Broadcasts originated by this server, waiting for DELIVERs
+    private final Map<BroadcastId, BroadcastService> _myBroadcasts = new ConcurrentHashMap<>();
 
-    public BroadcastService newBroadcast(BroadcastId id) {
-        BroadcastService b = new BroadcastService(this, id);
-        _broadcastServices.put(id, b);
-        if (_broadcastServices.size() > BROADCAST_SERVICES_MAX) cleanBroadcastServices(_broadcastServices);
-        return b;
+    // Own broadcasts share the read lock, refreshing the secret keys takes the write lock
+    private final ReadWriteLock _secretKeysLock = new ReentrantReadWriteLock();
+
+    public BroadcastId nextBroadcastId() {
+        return new BroadcastId(_serverId+1000, _broadcastCount.getAndIncrement());
     }
 
-    public BroadcastService getBroadcastService(BroadcastId id) {
-        BroadcastService b = _broadcastServices.get(id);
-        if (b == null) // create new
-            b = newBroadcast(id);
-        return b;
-    }
-
-    private void cleanBroadcastServices(Map<BroadcastId, BroadcastService> broadcastServicesR) {
-        List<BroadcastId> toRemove = new ArrayList<>();
-        Iterator<Map.Entry<BroadcastId, BroadcastService>> iterator = broadcastServicesR.entrySet().iterator();
-        for (int i = 0; i < BROADCAST_SERVICES_MAX/2; i++) { // clean half of them, if they are delivered
-            BroadcastId key = iterator.next().getKey();
-            if (broadcastServicesR.get(key).is_delivered())
-                toRemove.add(key);
+    public BroadcastService broadcast(BroadcastMessage m) {
+        BroadcastService b = new BroadcastService(this, m);
+        _secretKeysLock.readLock().lock();
+        _myBroadcasts.put(m.get_broadcastId(), b);
+        try {
+            b.broadcastSend();
+            return b;
+        } finally {
+            _myBroadcasts.remove(m.get_broadcastId());
+            _secretKeysLock.readLock().unlock();
         }
-        for (BroadcastId key : toRemove) broadcastServicesR.remove(key);
+    }
+
+    // returns null if the broadcast is already over and evicted
+    public BroadcastService getBroadcastService(BroadcastId id) {
+        return _broadcastRegistry.getOrCreate(id);
+    }
+
+    // does not create the service, returns null if unknown
+    public BroadcastService findBroadcastService(BroadcastId id) {
+        return _broadcastRegistry.find(id);
+    }
+
+    public BroadcastRegistry getBroadcastRegistry() {
+        return _broadcastRegistry;
     }
 
     public void broadcastDeliver(int senderId, BroadcastMessage response){
-        if (_myBroadcastW != null && _myBroadcastW.validResponse(response))
-            _myBroadcastW.broadcastDeliver(senderId, response);
-        else if (_myBroadcastR != null && _myBroadcastR.validResponse(response))
-            _myBroadcastR.broadcastDeliver(senderId, response);
+        BroadcastService b = _myBroadcasts.get(response.get_broadcastId());
+        if (b != null && b.validResponse(response))
+            b.broadcastDeliver(senderId, response);
         // drop if response was not asked for
     }
 
     public boolean broadcastActive() {
-        if (_myBroadcastW != null || _myBroadcastR != null) return true;
-        for (BroadcastService bs : _broadcastServices.values()) {
-            if (!bs.is_delivered()) return true;
-        }
-        return false;
+        return !_myBroadcasts.isEmpty() || _broadcastRegistry.countUndelivered() > 0;
     }
 
     public Long checkBroadcastNounce(Long prevNounce, Long recevNounce) {
@@ -386,50 +485,124 @@ public class ServerApplication {
 
     /* ====[                   W R I T E                    ]==== */
 
-    private BroadcastService _myBroadcastW = null;
-
-    public synchronized void broadcastW(DBLocationReport report) {
-        BroadcastId broadcastId = new BroadcastId(_serverId+1000, _broadcastCount);
+    public void broadcastW(DBLocationReport report) {
+        BroadcastId broadcastId = nextBroadcastId();
         report.set_timestamp( report.get_timestamp() + 1 );
         BroadcastMessage m = new BroadcastMessage(broadcastId, report);
 
-        _myBroadcastW = new BroadcastService(this, broadcastId);
         System.out.println("Broadcasting write...");
-        _myBroadcastW.broadcastSend(m);
-        _broadcastCount++;
-        _myBroadcastW = null;
+        broadcast(m);
     }
 
     /* ====[                    R E A D                     ]==== */
 
-    private BroadcastService _myBroadcastR = null;
+    public DBLocationReport broadcastR(ObtainLocationRequest locationRequest) {
+        return broadcastR(locationRequest, false);
+    }
 
-    public synchronized DBLocationReport broadcastR(ObtainLocationRequest locationRequest) {
-        BroadcastId broadcastId = new BroadcastId(_serverId+1000, _broadcastCount);
+    // allProofs is needed when the report is written back, correct replicas reject writes with any invalid proof
+    public DBLocationReport broadcastR(ObtainLocationRequest locationRequest, boolean allProofs) {
+        BroadcastId broadcastId = nextBroadcastId();
         BroadcastMessage m = new BroadcastMessage(broadcastId, locationRequest);
-        _myBroadcastR = new BroadcastService(this, broadcastId);
+
         System.out.println("Broadcasting read...");
-        _myBroadcastR.broadcastSend(m);
-        _broadcastCount++;
+        BroadcastService b = broadcast(m);
 
         // Choose the report with the largest timestamp
         DBLocationReport finalLocationReport = null;
-        for (BroadcastMessage deliver : _myBroadcastR.get_delivers()) {
+        for (BroadcastMessage deliver : b.get_delivers()) {
             try {
                 if (deliver == null || deliver.get_report() == null) continue;
                 DBLocationReport report = deliver.get_report();
-                verifyDBReport(report);
-                if (finalLocationReport == null || report.get_timestamp() > finalLocationReport.get_timestamp())
-                    finalLocationReport = report;
+                if (finalLocationReport != null && report.get_timestamp() <= finalLocationReport.get_timestamp()) continue;
+                verifyDBReport(report, allProofs);
+                finalLocationReport = report;
             } catch (IllegalArgumentException ignored) {} // ignore invalid responses
         }
-        _myBroadcastR = null;
-
         return finalLocationReport;
     }
 
-    public synchronized DBLocationReport atomicBroadcastR(ObtainLocationRequest locationRequest) {
-        DBLocationReport locationReport = broadcastR(locationRequest);
+    // Reads the registers of every user reported at the given location and epoch, ordered by user id
+    public List<DBLocationReport> broadcastUsersR(ObtainUsersRequest usersRequest) {
+        BroadcastId broadcastId = nextBroadcastId();
+        BroadcastMessage m = new BroadcastMessage(broadcastId, usersRequest);
+
+        System.out.println("Broadcasting users read...");
+        BroadcastService b = broadcast(m);
+
+        // A replica only answers with reports at the location, one holding a newer report of the user elsewhere leaves
+        // the user out. Users missing from some answers are read again, and kept only if still at the location.
+        List<DBLocationReport> reports = new ArrayList<>();
+        int answers = countDelivers(b, null);
+        for (DBLocationReport report : latestReports(b).values()) {
+            if (countDelivers(b, report) < answers)
+                report = broadcastR(new ObtainLocationRequest(report.get_userId(), report.get_epoch()));
+            if (report != null && usersRequest.get_location().equals(report.get_location()))
+                reports.add(report);
+        }
+        reports.sort(Comparator.comparingInt(DBLocationReport::get_userId));
+        return reports;
+    }
+
+    // Counts the delivers holding the report's register at the report's timestamp, or every deliver with reports if null
+    private static int countDelivers(BroadcastService b, DBLocationReport report) {
+        int count = 0;
+        for (BroadcastMessage deliver : b.get_delivers()) {
+            if (deliver == null || deliver.get_reports() == null) continue;
+            if (report == null) {
+                count++;
+                continue;
+            }
+            for (DBLocationReport other : deliver.get_reports()) {
+                if (other.get_userId() == report.get_userId() && other.get_epoch() == report.get_epoch()
+                        && other.get_timestamp() == report.get_timestamp()) {
+                    count++;
+                    break;
+                }
+            }
+        }
+        return count;
+    }
+
+    // Reads the registers of every report holding a proof of the given witness at the given epochs
+    public List<DBLocationReport> broadcastWitnessR(WitnessProofsRequest witnessRequest) {
+        if (witnessRequest.get_epochs().isEmpty()) return new ArrayList<>();
+        BroadcastId broadcastId = nextBroadcastId();
+        BroadcastMessage m = new BroadcastMessage(broadcastId, witnessRequest);
+
+        System.out.println("Broadcasting witness read...");
+        BroadcastService b = broadcast(m);
+
+        List<DBLocationReport> reports = new ArrayList<>(latestReports(b, witnessRequest.get_userId()).values());
+        reports.sort(Comparator.comparingInt(DBLocationReport::get_epoch).thenComparingInt(DBLocationReport::get_userId));
+        return reports;
+    }
+
+    // Chooses, for each register found in the delivers, the valid report with the largest timestamp
+    private Map<ObtainLocationRequest, DBLocationReport> latestReports(BroadcastService b) {
+        return latestReports(b, null);
+    }
+
+    // witnessId, if not null, must hold a valid proof in every chosen report
+    private Map<ObtainLocationRequest, DBLocationReport> latestReports(BroadcastService b, Integer witnessId) {
+        Map<ObtainLocationRequest, DBLocationReport> finalLocationReports = new HashMap<>();
+        for (BroadcastMessage deliver : b.get_delivers()) {
+            if (deliver == null || deliver.get_reports() == null) continue;
+            for (DBLocationReport report : deliver.get_reports()) {
+                try {
+                    ObtainLocationRequest key = new ObtainLocationRequest(report.get_userId(), report.get_epoch());
+                    DBLocationReport current = finalLocationReports.get(key);
+                    if (current != null && report.get_timestamp() <= current.get_timestamp()) continue;
+                    verifyDBReport(report, false, witnessId);
+                    finalLocationReports.put(key, report);
+                } catch (IllegalArgumentException ignored) {} // ignore invalid responses
+            }
+        }
+        return finalLocationReports;
+    }
+
+    public DBLocationReport atomicBroadcastR(ObtainLocationRequest locationRequest) {
+        DBLocationReport locationReport = broadcastR(locationRequest, true);
 
         // Atomic Register: Write-back phase after Read
         if (locationReport != null)
@@ -441,7 +614,7 @@ public class ServerApplication {
 
     /* ====[                   A S Y N C                    ]==== */
 
-    class AsyncPost extends Thread {
+    class AsyncPost implements Runnable {
 
         private final int _serverId;
         private final BroadcastMessage _message;
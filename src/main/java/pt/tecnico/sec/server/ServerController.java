@@ -1,6 +1,9 @@
 package pt.tecnico.sec.server;
 
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RestController;
@@ -10,15 +13,17 @@ import pt.tecnico.sec.contract.*;
 import pt.tecnico.sec.contract.exception.RecordAlreadyExistsException;
 import pt.tecnico.sec.server.broadcast.BroadcastMessage;
 import pt.tecnico.sec.server.broadcast.BroadcastService;
+import pt.tecnico.sec.server.database.DBLocation;
 import pt.tecnico.sec.server.database.DBLocationProof;
 import pt.tecnico.sec.server.database.DBLocationReport;
+import pt.tecnico.sec.server.database.DBWitnessProof;
 
 import javax.crypto.SecretKey;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Set;
 
 import static pt.tecnico.sec.Constants.OK;
+import static pt.tecnico.sec.Constants.REPORT_CACHE_SIZE;
 
 @SuppressWarnings("AccessStaticViaInstance")
 @RestController
@@ -26,17 +31,27 @@ public class ServerController {
 
     private static ServerApplication _serverApp;
     private static ReportRepository _reportRepository;
+    private static WitnessRepository _witnessRepository;
+    private static TransactionTemplate _transactionTemplate; // a report and its witness index entries change together
+    private static final ReportCache _reportCache = new ReportCache(REPORT_CACHE_SIZE); // write-through, latest register values
 
     @Autowired
-    private ServerController(ServerApplication serverApp, ReportRepository reportRepository) {
+    private ServerController(ServerApplication serverApp, ReportRepository reportRepository, WitnessRepository witnessRepository,
+                             PlatformTransactionManager transactionManager) {
         _serverApp = serverApp;
         _reportRepository = reportRepository;
+        _witnessRepository = witnessRepository;
+        _transactionTemplate = new TransactionTemplate(transactionManager);
     }
 
     /* ========================================================== */
     /* ====[                     General                    ]==== */
     /* ========================================================== */
 
+    public static ReportCache getReportCache() {
+        return _reportCache;
+    }
+
     public SecureMessage secureOKMessage(int senderId) throws Exception {
         Message m = new Message(OK);
         return _serverApp.cipherAndSignMessage(senderId, m);
@@ -110,25 +125,15 @@ public class ServerController {
             request.checkSender( secureRequest.get_senderId() );
 
             int witnessId = request.get_userId();
-            Set<Integer> epochs = request.get_epochs();
             List<LocationProof> locationProofs = new ArrayList<>();
 
             _serverApp.refreshServerSecretKeys();
 
-            // set of read operations
-            int userCount = _serverApp.getUserCount();
-            for (int id = 0; id < userCount; id++) {
-                if (id == witnessId) continue; // user will never be a witness of itself
-                for (int ep : epochs) {
-                    ObtainLocationRequest userReportRequest = new ObtainLocationRequest(id, ep);
-                    DBLocationReport dbLocationReport = _serverApp.broadcastR(userReportRequest);
-
-                    // filter requested reports
-                    if (dbLocationReport == null) continue;
-                    DBLocationProof proof = dbLocationReport.get_witness_proof(witnessId);
-                    if (proof != null)
-                        locationProofs.add(new LocationProof(proof));
-                }
+            // read only the registers holding proofs of the witness
+            for (DBLocationReport dbLocationReport : _serverApp.broadcastWitnessR(request)) {
+                DBLocationProof proof = dbLocationReport.get_witness_proof(witnessId);
+                if (proof != null)
+                    locationProofs.add(new LocationProof(proof));
             }
 
             // encrypt and send response
@@ -144,7 +149,6 @@ public class ServerController {
     /* ====[                 Health Authority               ]==== */
     /* ========================================================== */
 
-    @SuppressWarnings("EqualsBetweenInconvertibleTypes")
     @PostMapping("/users")
     public SecureMessage getUsers(@RequestBody SecureMessage secureRequest) {
         try {
@@ -159,15 +163,9 @@ public class ServerController {
 
             _serverApp.refreshServerSecretKeys();
 
-            // set of read operations
-            int userCount = _serverApp.getUserCount();
-            for (int id = 0; id < userCount; id++) {
-                ObtainLocationRequest userReportRequest = new ObtainLocationRequest(id, ep);
-                DBLocationReport dbLocationReport = _serverApp.broadcastR(userReportRequest);
-                // filter requested reports
-                if (dbLocationReport != null && dbLocationReport.get_location().equals(loc))
-                    reports.add(new SignedLocationReport(dbLocationReport));
-            }
+            // read only the registers placed at the requested location
+            for (DBLocationReport dbLocationReport : _serverApp.broadcastUsersR(request))
+                reports.add(new SignedLocationReport(dbLocationReport));
 
             // encrypt and send response
             Message response = new Message(new UsersAtLocation(loc, ep, reports) );
@@ -225,8 +223,11 @@ public class ServerController {
         try {
             System.out.println("[*] Received a @SEND Request from " + senderId);
             BroadcastMessage m = _serverApp.decipherAndVerifyBroadcastMessage(message);
+            if (m.is_digestOnly())
+                throw new IllegalArgumentException("SEND messages must carry the broadcast payload.");
             BroadcastService b = _serverApp.getBroadcastService(m.get_broadcastId());
-            b.broadcastSENDDeliver(m);
+            if (b == null) return secureOKMessage(senderId); // broadcast already over, late message
+            b.broadcastSENDDeliver(senderId, m);
             return secureOKMessage(senderId);
         } catch (Exception e) {
             return secureExceptionMessage(senderId, e);
@@ -239,7 +240,10 @@ public class ServerController {
         try {
             System.out.println("[*] Received an @ECHO Request from " + senderId);
             BroadcastMessage m = _serverApp.decipherAndVerifyBroadcastMessage(secureMessage);
+            if (!m.is_digestOnly())
+                throw new IllegalArgumentException("ECHO messages must only carry a digest.");
             BroadcastService b = _serverApp.getBroadcastService(m.get_broadcastId());
+            if (b == null) return secureOKMessage(senderId); // broadcast already over, late message
             b.broadcastECHODeliver(secureMessage.get_senderId() - 1000, m);
             return secureOKMessage(senderId);
 
@@ -253,12 +257,16 @@ public class ServerController {
         int senderId = secureMessage.get_senderId();
         try {
             System.out.println("[*] Received a @READY Request from " + senderId);
-            BroadcastMessage m = _serverApp.decipherAndVerifyBroadcastMessage(secureMessage);
-            BroadcastService b = _serverApp.getBroadcastService(m.get_broadcastId());
-            boolean delivered = b.broadcastREADYDeliver(secureMessage.get_senderId()-1000, m);
+            BroadcastMessage ready = _serverApp.decipherAndVerifyBroadcastMessage(secureMessage);
+            if (!ready.is_digestOnly())
+                throw new IllegalArgumentException("READY messages must only carry a digest.");
+            BroadcastService b = _serverApp.getBroadcastService(ready.get_broadcastId());
+            if (b == null) return secureOKMessage(senderId); // broadcast already over, late message
+            boolean delivered = b.broadcastREADYDeliver(secureMessage.get_senderId()-1000, ready);
             if (!delivered) return secureOKMessage(senderId);
 
-            // Deliver
+            // Deliver the payload the quorum agreed on
+            BroadcastMessage m = b.getDeliveredPayload();
             BroadcastMessage deliver;
             if (m.is_write()) {
                 int timestamp = writeLocationReport(m);
@@ -266,6 +274,12 @@ public class ServerController {
             } else if (m.is_read()) {
                 DBLocationReport report = readLocationReport(m);
                 deliver = new BroadcastMessage(m.get_broadcastId(), report);
+            } else if (m.is_users_read()) {
+                List<DBLocationReport> reports = readUsersAtLocation(m);
+                deliver = new BroadcastMessage(m.get_broadcastId(), reports);
+            } else if (m.is_witness_read()) {
+                List<DBLocationReport> reports = readWitnessReports(m);
+                deliver = new BroadcastMessage(m.get_broadcastId(), reports);
             } else throw new IllegalArgumentException("Broadcast messages must be reads or writes.");
 
             // Encrypt and send response
@@ -278,6 +292,25 @@ public class ServerController {
         }
     }
 
+    @PostMapping("/broadcast-fetch")
+    public SecureMessage broadcastFetch(@RequestBody SecureMessage secureMessage) {
+        int senderId = secureMessage.get_senderId();
+        try {
+            System.out.println("[*] Received a @FETCH Request from " + senderId);
+            BroadcastMessage m = _serverApp.decipherAndVerifyBroadcastMessage(secureMessage);
+            if (!m.is_digestOnly())
+                throw new IllegalArgumentException("FETCH messages must only carry a digest.");
+            BroadcastService b = _serverApp.findBroadcastService(m.get_broadcastId());
+            byte[] payload = (b != null) ? b.getPayload(m.get_digest()) : null;
+            if (payload == null)
+                throw new IllegalArgumentException("No payload for " + m.get_broadcastId() + " with the requested digest.");
+            return _serverApp.cipherAndSignMessage(senderId, new Message(payload));
+
+        } catch (Exception e) {
+            return secureExceptionMessage(senderId, e);
+        }
+    }
+
     @PostMapping("/broadcast-deliver")
     public SecureMessage broadcastDeliver(@RequestBody SecureMessage secureMessage) {
         int senderId = secureMessage.get_senderId();
@@ -303,22 +336,53 @@ public class ServerController {
         DBLocationReport locationReport = m.getDBLocationReport();
         _serverApp.verifyDBReport(locationReport);
 
-        int epoch = locationReport.get_epoch();
-        int userId = locationReport.get_userId();
         int timestamp = locationReport.get_timestamp();
-        int mytimestamp = 0;
 
-        // Update database
-        DBLocationReport mylocationReport = _reportRepository.findReportByEpochAndUser(userId, epoch);
-        if (mylocationReport != null)
-            mytimestamp = mylocationReport.get_timestamp();
+        // Update database - a first write is a single insert, otherwise a single conditional update
+        if (insertLocationReport(locationReport) || replaceLocationReport(locationReport))
+            _reportCache.put(locationReport);
 
-        if (timestamp > mytimestamp){
-            if (mylocationReport != null) _reportRepository.delete(mylocationReport);
-            _reportRepository.save(locationReport);
+        return timestamp;
+    }
+
+    // Inserts the report if there is none stored for its user and epoch yet, report_user_epoch_idx rejects it otherwise
+    private boolean insertLocationReport(DBLocationReport locationReport) {
+        locationReport.clearIds();
+        try {
+            _transactionTemplate.executeWithoutResult(status -> {
+                _reportRepository.save(locationReport);
+                _witnessRepository.saveAll(witnessProofs(locationReport));
+            });
+            return true;
         }
+        catch (DataIntegrityViolationException e) {
+            locationReport.clearIds(); // rolled back
+            return false;
+        }
+    }
 
-        return timestamp;
+    // Replaces the stored report if the given one has a greater timestamp, its proofs may differ from the stored ones
+    private boolean replaceLocationReport(DBLocationReport locationReport) {
+        DBLocation location = locationReport.get_location();
+        Boolean replaced = _transactionTemplate.execute(status -> {
+            int rows = _reportRepository.replaceReportIfGreater(locationReport.get_userId(), locationReport.get_epoch(),
+                    locationReport.get_timestamp(), location.get_x(), location.get_y(), locationReport.get_proofsBytes(), locationReport.get_signature());
+            if (rows > 0) {
+                // replaces the index entries of the report it overwrote
+                _witnessRepository.deleteByProverAndEpoch(locationReport.get_userId(), locationReport.get_epoch());
+                _witnessRepository.saveAll(witnessProofs(locationReport));
+            }
+            return rows > 0;
+        });
+        return Boolean.TRUE.equals(replaced);
+    }
+
+    // Index entries of the report under each of its witnesses
+    private static List<DBWitnessProof> witnessProofs(DBLocationReport locationReport) {
+        List<DBWitnessProof> witnessProofs = new ArrayList<>();
+        for (DBLocationProof proof : locationReport.get_DB_proofs())
+            witnessProofs.add(new DBWitnessProof(proof.get_witnessId(), locationReport.get_userId(), locationReport.get_epoch()));
+        return witnessProofs;
     }
 
     public DBLocationReport readLocationReport(BroadcastMessage m) {
@@ -329,7 +393,32 @@ public class ServerController {
         int epoch = locationRequest.get_epoch();
         int userId = locationRequest.get_userId();
 
-        // Find requested report
-        return _reportRepository.findReportByEpochAndUser(userId, epoch);
+        // Find requested report, the database is only read on a cache miss
+        DBLocationReport report = _reportCache.get(userId, epoch);
+        if (report == null) {
+            report = _reportRepository.findReportByEpochAndUser(userId, epoch);
+            if (report != null) _reportCache.put(report);
+        }
+        return report;
+    }
+
+    public List<DBLocationReport> readUsersAtLocation(BroadcastMessage m) {
+        // Decipher and check request
+        m.checkOrigin();
+        ObtainUsersRequest usersRequest = m.get_usersRequest();
+        Location location = usersRequest.get_location();
+
+        // Find the reports at the requested location, through the (epoch, x, y) index
+        return _reportRepository.findReportsByEpochAndLocation(usersRequest.get_epoch(), location.get_x(), location.get_y());
+    }
+
+    public List<DBLocationReport> readWitnessReports(BroadcastMessage m) {
+        // Decipher and check request
+        m.checkOrigin();
+        WitnessProofsRequest witnessRequest = m.get_witnessRequest();
+        if (witnessRequest.get_epochs().isEmpty()) return new ArrayList<>();
+
+        // Find the reports holding proofs of the witness, through the witness index
+        return _reportRepository.findReportsByWitnessAndEpochs(witnessRequest.get_userId(), witnessRequest.get_epochs());
     }
 }
@@ -0,0 +1,18 @@
+package pt.tecnico.sec.server;
+
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.CrudRepository;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
+import pt.tecnico.sec.server.database.DBWitnessProof;
+
+
+public interface WitnessRepository extends CrudRepository<DBWitnessProof, Integer> {
+
+    // Drops the index entries of the report of prover at epoch, before it is indexed again
+    @Modifying
+    @Transactional
+    @Query(value = "DELETE FROM dbwitness_proof WHERE _prover_id = ?1 AND _epoch = ?2 ", nativeQuery = true)
+    int deleteByProverAndEpoch(@Param("proverId") int proverId, @Param("epoch") int epoch);
+}
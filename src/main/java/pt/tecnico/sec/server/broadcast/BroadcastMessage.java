@@ -2,10 +2,17 @@ package pt.tecnico.sec.server.broadcast;
 
 import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import pt.tecnico.sec.contract.ObjectMapperHandler;
 import pt.tecnico.sec.contract.ObtainLocationRequest;
+import pt.tecnico.sec.contract.ObtainUsersRequest;
+import pt.tecnico.sec.contract.WitnessProofsRequest;
 import pt.tecnico.sec.contract.exception.ReportNotAcceptableException;
 import pt.tecnico.sec.server.database.DBLocationReport;
 
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.List;
 import java.util.Objects;
 
 @SuppressWarnings("unused")
@@ -16,9 +23,25 @@ public class BroadcastMessage {
     private DBLocationReport _report = null;
     private Integer _timestamp = null;
     private ObtainLocationRequest _request = null;
+    private ObtainUsersRequest _usersRequest = null;
+    private WitnessProofsRequest _witnessRequest = null;
+    private List<DBLocationReport> _reports = null;
+    private byte[] _digest = null; // ECHO and READY carry only the digest of the SEND payload
 
     public BroadcastMessage() {}
 
+    // copy without the nounce, what the payload digest is taken over
+    private BroadcastMessage(BroadcastMessage m) {
+        _broadcastId = m._broadcastId;
+        _report = m._report;
+        _timestamp = m._timestamp;
+        _request = m._request;
+        _usersRequest = m._usersRequest;
+        _witnessRequest = m._witnessRequest;
+        _reports = m._reports;
+        _digest = m._digest;
+    }
+
     public BroadcastMessage(BroadcastId id, DBLocationReport report){
         _broadcastId = id;
         _nounce = System.currentTimeMillis();
@@ -37,6 +60,30 @@ public class BroadcastMessage {
         _request = request;
     }
 
+    public BroadcastMessage(BroadcastId id, ObtainUsersRequest usersRequest){
+        _broadcastId = id;
+        _nounce = System.currentTimeMillis();
+        _usersRequest = usersRequest;
+    }
+
+    public BroadcastMessage(BroadcastId id, WitnessProofsRequest witnessRequest){
+        _broadcastId = id;
+        _nounce = System.currentTimeMillis();
+        _witnessRequest = witnessRequest;
+    }
+
+    public BroadcastMessage(BroadcastId id, List<DBLocationReport> reports){
+        _broadcastId = id;
+        _nounce = System.currentTimeMillis();
+        _reports = reports;
+    }
+
+    public BroadcastMessage(BroadcastId id, byte[] digest){
+        _broadcastId = id;
+        _nounce = System.currentTimeMillis();
+        _digest = digest;
+    }
+
     @JsonIgnore
     public void reset_nounce() {
         _nounce = System.currentTimeMillis();
@@ -90,12 +137,79 @@ public class BroadcastMessage {
         this._request = _request;
     }
 
+    public ObtainUsersRequest get_usersRequest() {
+        return _usersRequest;
+    }
+
+    public void set_usersRequest(ObtainUsersRequest _usersRequest) {
+        this._usersRequest = _usersRequest;
+    }
+
+    public WitnessProofsRequest get_witnessRequest() {
+        return _witnessRequest;
+    }
+
+    public void set_witnessRequest(WitnessProofsRequest _witnessRequest) {
+        this._witnessRequest = _witnessRequest;
+    }
+
+    public List<DBLocationReport> get_reports() {
+        return _reports;
+    }
+
+    public void set_reports(List<DBLocationReport> _reports) {
+        this._reports = _reports;
+    }
+
+    public byte[] get_digest() {
+        return _digest;
+    }
+
+    public void set_digest(byte[] _digest) {
+        this._digest = _digest;
+    }
+
     public boolean is_write() {
-        return _report != null && _timestamp == null && _request == null;
+        return _report != null && payloads() == 1;
     }
 
     public boolean is_read() {
-        return _request != null && _timestamp == null && _report == null;
+        return _request != null && payloads() == 1;
+    }
+
+    // reads every register whose report places its user at the requested location and epoch
+    public boolean is_users_read() {
+        return _usersRequest != null && payloads() == 1;
+    }
+
+    // reads every register whose report holds a proof signed by the requested witness
+    public boolean is_witness_read() {
+        return _witnessRequest != null && payloads() == 1;
+    }
+
+    // an ECHO, READY or FETCH, standing for the payload of the SEND
+    public boolean is_digestOnly() {
+        return _digest != null && payloads() == 1;
+    }
+
+    // a well-formed message carries exactly one request, response or digest
+    private int payloads() {
+        int count = 0;
+        for (Object payload : new Object[] { _report, _timestamp, _request, _usersRequest, _witnessRequest, _reports, _digest })
+            if (payload != null) count++;
+        return count;
+    }
+
+    /* ===========[   Payload digest   ]=========== */
+
+    // the message without its nounce, replicas that decode the same SEND serialize it the same way
+    @JsonIgnore
+    public byte[] payloadBytes() throws Exception {
+        return ObjectMapperHandler.writeValueAsBytes(new BroadcastMessage(this));
+    }
+
+    public static byte[] digest(byte[] payloadBytes) throws Exception {
+        return MessageDigest.getInstance("SHA-256").digest(payloadBytes);
     }
 
     public void checkOrigin() {
@@ -111,6 +225,10 @@ public class BroadcastMessage {
                 ((_report != null) ? ", _report=" + _report : "") +
                 ((_timestamp != null) ? ", _report=" + _timestamp : "") +
                 ((_request != null) ? ", _report=" + _request : "") +
+                ((_usersRequest != null) ? ", _usersRequest=" + _usersRequest : "") +
+                ((_witnessRequest != null) ? ", _witnessRequest=" + _witnessRequest : "") +
+                ((_reports != null) ? ", _reports=" + _reports : "") +
+                ((_digest != null) ? ", _digest=" + Base64.getEncoder().encodeToString(_digest) : "") +
                 '}';
     }
 
@@ -119,11 +237,12 @@ public class BroadcastMessage {
         if (this == o) return true;
         if (o == null || getClass() != o.getClass()) return false;
         BroadcastMessage that = (BroadcastMessage) o;
-        return Objects.equals(_broadcastId, that._broadcastId) && Objects.equals(_report, that._report) && Objects.equals(_timestamp, that._timestamp) && Objects.equals(_request, that._request);
+        return Objects.equals(_broadcastId, that._broadcastId) && Objects.equals(_report, that._report) && Objects.equals(_timestamp, that._timestamp) && Objects.equals(_request, that._request) && Objects.equals(_usersRequest, that._usersRequest) && Objects.equals(_witnessRequest, that._witnessRequest) && Objects.equals(_reports, that._reports) && Arrays.equals(_digest, that._digest);
     }
 
     @Override
     public int hashCode() {
-        return Objects.hash(_broadcastId, _report, _timestamp, _request);
+        int result = Objects.hash(_broadcastId, _report, _timestamp, _request, _usersRequest, _witnessRequest, _reports);
+        return 31 * result + Arrays.hashCode(_digest);
     }
 }
@@ -0,0 +1,55 @@
+package pt.tecnico.sec.server.broadcast;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+// Counts the DELIVER acknowledgements of a broadcast, completing once more than <quorum> distinct servers answered
+public class BroadcastQuorum {
+    private final int _quorum;
+    private final boolean[] _acked;
+    private int _acks = 0;
+    private final CompletableFuture<Void> _reached = new CompletableFuture<>();
+
+    public BroadcastQuorum(int serverCount, int quorum) {
+        _quorum = quorum;
+        _acked = new boolean[serverCount];
+    }
+
+    public synchronized int get_acks() {
+        return _acks;
+    }
+
+    public boolean is_reached() {
+        return _reached.isDone();
+    }
+
+    // Returns true if this was the first acknowledgement of the given server
+    public synchronized boolean ack(int id) {
+        if (_acked[id]) return false;
+        _acked[id] = true;
+        if (++_acks > _quorum) _reached.complete(null);
+        return true;
+    }
+
+    // Blocks until the quorum is reached or the timeout (in milliseconds) expires
+    public boolean await(long timeout) throws InterruptedException {
+        try {
+            _reached.get(timeout, TimeUnit.MILLISECONDS);
+            return true;
+        } catch (TimeoutException e) {
+            return false;
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "BroadcastQuorum{" +
+                "_quorum=" + _quorum +
+                ", _acks=" + get_acks() +
+                '}';
+    }
+}
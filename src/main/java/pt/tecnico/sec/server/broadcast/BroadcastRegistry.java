@@ -0,0 +1,128 @@
+package pt.tecnico.sec.server.broadcast;
+
+import pt.tecnico.sec.server.ServerApplication;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+/*
+ * Broadcasts this replica takes part in, by id. Delivered broadcasts are kept for late ECHOs, READYs and FETCHes
+ * until they are older than the TTL or the registry grows past its capacity. Undelivered ones are only dropped
+ * once older than the TTL, the sender has given up on them by then (BROADCAST_TIMEOUT).
+ * Evicted ids are remembered for another TTL, so late messages are dropped instead of starting the broadcast over.
+ */
+public class BroadcastRegistry {
+    private final ServerApplication _serverApp;
+    private final int _capacity;
+    private final long _ttl;
+
+    private final Map<BroadcastId, Entry> _services = new ConcurrentHashMap<>();
+    private final Queue<Entry> _order = new ConcurrentLinkedQueue<>(); // creation order, oldest first
+    private final Map<BroadcastId, Long> _retired = new ConcurrentHashMap<>(); // evicted ids -> eviction time
+    private final Queue<BroadcastId> _retiredOrder = new ConcurrentLinkedQueue<>(); // eviction order, oldest first
+    private final AtomicInteger _undelivered = new AtomicInteger(0);
+    private final ReentrantLock _evictLock = new ReentrantLock();
+
+    public BroadcastRegistry(ServerApplication serverApp, int capacity, long ttl) {
+        _serverApp = serverApp;
+        _capacity = capacity;
+        _ttl = ttl;
+    }
+
+    // returns null for ids that were already evicted, their messages are late
+    public BroadcastService getOrCreate(BroadcastId id) {
+        Entry entry = _services.get(id);
+        if (entry == null) {
+            if (_retired.containsKey(id)) return null;
+            entry = _services.computeIfAbsent(id, k -> {
+                Entry created = new Entry(k);
+                _order.add(created);
+                _undelivered.incrementAndGet();
+                return created;
+            });
+            evict();
+        }
+        return entry._service;
+    }
+
+    // does not create the service, returns null if unknown
+    public BroadcastService find(BroadcastId id) {
+        Entry entry = _services.get(id);
+        return (entry != null) ? entry._service : null;
+    }
+
+    // expired broadcasts are evicted first, so a lost one cannot keep the count up while no new ones arrive
+    public int countUndelivered() {
+        evict();
+        return _undelivered.get();
+    }
+
+    public int size() {
+        return _services.size();
+    }
+
+    // walks from the oldest entry, stopping at the first one that is neither expired nor needed to free capacity
+    private void evict() {
+        if (!_evictLock.tryLock()) return; // another thread is already evicting
+        try {
+            long now = System.currentTimeMillis();
+            Iterator<Entry> iterator = _order.iterator();
+            while (iterator.hasNext()) {
+                Entry entry = iterator.next();
+                boolean expired = now - entry._created > _ttl;
+                if (!expired && _services.size() <= _capacity) break;
+                if (expired || entry._service.is_delivered()) {
+                    iterator.remove();
+                    _services.remove(entry._id, entry);
+                    _retired.put(entry._id, now);
+                    _retiredOrder.add(entry._id);
+                    entry.retire();
+                }
+            }
+
+            // forget the ids retired for longer than the TTL
+            BroadcastId oldest;
+            while ((oldest = _retiredOrder.peek()) != null) {
+                Long retiredAt = _retired.get(oldest);
+                if (retiredAt != null && now - retiredAt <= _ttl) break;
+                _retiredOrder.poll();
+                if (retiredAt != null) _retired.remove(oldest, retiredAt);
+            }
+        } finally {
+            _evictLock.unlock();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "BroadcastRegistry{" +
+                "_size=" + size() +
+                ", _undelivered=" + _undelivered.get() +
+                ", _retired=" + _retired.size() +
+                '}';
+    }
+
+    private class Entry {
+        private final BroadcastId _id;
+        private final long _created = System.currentTimeMillis();
+        private final AtomicBoolean _pending = new AtomicBoolean(true);
+        private final BroadcastService _service;
+
+        Entry(BroadcastId id) {
+            _id = id;
+            _service = new BroadcastService(_serverApp, id, this::retire);
+        }
+
+        // leaves the undelivered count once, when delivered or evicted
+        void retire() {
+            if (_pending.compareAndSet(true, false))
+                _undelivered.decrementAndGet();
+        }
+    }
+}
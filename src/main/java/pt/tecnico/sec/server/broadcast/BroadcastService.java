@@ -1,12 +1,21 @@
 package pt.tecnico.sec.server.broadcast;
 
+import pt.tecnico.sec.contract.ObjectMapperHandler;
 import pt.tecnico.sec.contract.ObtainLocationRequest;
+import pt.tecnico.sec.contract.ObtainUsersRequest;
+import pt.tecnico.sec.contract.WitnessProofsRequest;
+import pt.tecnico.sec.contract.exception.BroadcastTimeoutException;
 import pt.tecnico.sec.server.ServerApplication;
 import pt.tecnico.sec.server.database.DBLocationReport;
 
-import java.util.HashMap;
+import java.nio.ByteBuffer;
+import java.util.LinkedHashSet;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
 
+import static pt.tecnico.sec.Constants.BROADCAST_TIMEOUT;
 import static pt.tecnico.sec.Constants.F_SERVERS;
 
 public class BroadcastService {
@@ -14,21 +23,42 @@ public class BroadcastService {
     private final BroadcastId _broadcastId;
     private final int _serverCount;
 
-    private boolean _sentEcho = false;
-    private boolean _sentReady = false;
-    private boolean _delivered = false;
-    private final BroadcastMessage[] _echos;
-    private final BroadcastMessage[] _readys;
+    // Phases are taken by whichever endpoint thread first crosses their quorum
+    private final AtomicBoolean _sentEcho = new AtomicBoolean(false);
+    private final AtomicBoolean _sentReady = new AtomicBoolean(false);
+    private final AtomicBoolean _delivered = new AtomicBoolean(false);
+    private final DigestVotes _echos;
+    private final DigestVotes _readys;
+    private volatile ByteBuffer _deliveredDigest = null;
+
+    // Payloads received in a SEND or fetched, by digest, as the bytes the digest was taken over
+    private final Map<ByteBuffer, byte[]> _payloads = new ConcurrentHashMap<>();
+
+    private final BroadcastMessage[] _delivers;
+    private final BroadcastQuorum _quorum;
+    private final BroadcastMessage _request; // null unless this server started the broadcast
+    private final Runnable _onDelivered;
+
+    // started by this server, the request is set before the service is visible to the DELIVER handlers
+    public BroadcastService(ServerApplication serverApp, BroadcastMessage request) {
+        this(serverApp, request.get_broadcastId(), request, () -> {});
+    }
 
-    private BroadcastMessage[] _delivers;
-    private BroadcastMessage _request;
+    // onDelivered runs once, on the thread that delivers the broadcast
+    public BroadcastService(ServerApplication serverApp, BroadcastId broadcastId, Runnable onDelivered) {
+        this(serverApp, broadcastId, null, onDelivered);
+    }
 
-    public BroadcastService(ServerApplication serverApp, BroadcastId broadcastId) {
+    private BroadcastService(ServerApplication serverApp, BroadcastId broadcastId, BroadcastMessage request, Runnable onDelivered) {
         _serverApp = serverApp;
         _broadcastId = broadcastId;
+        _request = request;
+        _onDelivered = onDelivered;
         _serverCount = _serverApp.getServerCount();
-        _echos = new BroadcastMessage[_serverCount];
-        _readys = new BroadcastMessage[_serverCount];
+        _echos = new DigestVotes(_serverCount);
+        _readys = new DigestVotes(_serverCount);
+        _delivers = new BroadcastMessage[_serverCount];
+        _quorum = new BroadcastQuorum(_serverCount, (_serverCount + F_SERVERS) / 2);
     }
 
     /* ========================================================== */
@@ -36,34 +66,54 @@ public class BroadcastService {
     /* ========================================================== */
 
     public boolean is_delivered() {
-        return _delivered;
+        return _delivered.get();
     }
 
-    public BroadcastMessage[] get_delivers() {
-        return _delivers;
+    public synchronized BroadcastMessage[] get_delivers() {
+        return _delivers.clone();
     }
 
     public int countAcks() {
-        int acks = 0;
-        for (BroadcastMessage m : _delivers)
-            if (m != null) acks++;
-        return acks;
-    }
-
-    public BroadcastMessage searchForMajorityMessage(BroadcastMessage[] messages, int quorum) {
-        // count the times a message appears
-        Map<BroadcastMessage, Integer> counter = new HashMap<>();
-        for (BroadcastMessage m : messages) {
-            if (m == null) continue;
-            Integer count = counter.get(m);
-            if (count == null) counter.put(m, 1);
-            else counter.replace(m, count+1);
-        }
-        // search for message that appears more than <quorum> times
-        for (BroadcastMessage m : counter.keySet()) {
-            if (counter.get(m) > quorum) return m;
+        return _quorum.get_acks();
+    }
+
+    private BroadcastMessage digestMessage(ByteBuffer digest) {
+        return new BroadcastMessage(_broadcastId, digest.array());
+    }
+
+    // the SEND payload this replica holds for the digest, or null
+    public byte[] getPayload(byte[] digest) {
+        return _payloads.get(ByteBuffer.wrap(digest));
+    }
+
+    // the payload agreed on by the READY quorum, fetched from the replicas that vouched for it if its SEND never arrived
+    public BroadcastMessage getDeliveredPayload() throws Exception {
+        ByteBuffer digest = _deliveredDigest;
+        if (digest == null) throw new IllegalStateException("Broadcast " + _broadcastId + " was not delivered.");
+        byte[] payload = _payloads.get(digest);
+        if (payload == null) payload = fetchPayload(digest);
+        return ObjectMapperHandler.getBroadcastMessageFromBytes(payload);
+    }
+
+    private byte[] fetchPayload(ByteBuffer digest) {
+        // the sender first, then the replicas that echoed or readied the same digest
+        Set<Integer> candidates = new LinkedHashSet<>();
+        candidates.add(_broadcastId.get_senderId() - 1000);
+        for (int id = 0; id < _serverCount; id++)
+            if (_echos.votedFor(id, digest) || _readys.votedFor(id, digest)) candidates.add(id);
+
+        for (int serverId : candidates) {
+            try {
+                byte[] payload = _serverApp.fetchBroadcastPayload(serverId, digestMessage(digest));
+                if (payload != null && digest.equals(ByteBuffer.wrap(BroadcastMessage.digest(payload)))) {
+                    _payloads.putIfAbsent(digest, payload);
+                    return payload;
+                }
+            } catch (Exception e) {
+                System.out.println("Could not fetch the payload of " + _broadcastId + " from server " + serverId + ": " + e.getMessage());
+            }
         }
-        return null;
+        throw new IllegalArgumentException("No server returned the payload of " + _broadcastId + ".");
     }
 
     public boolean validResponse(BroadcastMessage m) {
@@ -81,6 +131,28 @@ public class BroadcastService {
                     (response == null || response.get_userId() == request.get_userId()
                             && response.get_epoch() == request.get_epoch());
         }
+        else if (_request.is_users_read()) {
+            ObtainUsersRequest request = _request.get_usersRequest();
+            if (!_request.get_broadcastId().equals(m.get_broadcastId()) || m.get_reports() == null) return false;
+            // every report must place its user at the requested location and epoch
+            for (DBLocationReport response : m.get_reports()) {
+                if (response == null || response.get_epoch() != request.get_epoch() || !request.get_location().equals(response.get_location()))
+                    return false;
+            }
+            return true;
+        }
+        else if (_request.is_witness_read()) {
+            WitnessProofsRequest request = _request.get_witnessRequest();
+            if (!_request.get_broadcastId().equals(m.get_broadcastId()) || m.get_reports() == null) return false;
+            // every report must be from a requested epoch and hold a proof of the requested witness
+            int witnessId = request.get_userId();
+            for (DBLocationReport response : m.get_reports()) {
+                if (response == null || response.get_userId() == witnessId || !request.get_epochs().contains(response.get_epoch())
+                        || response.get_witness_proof(witnessId) == null)
+                    return false;
+            }
+            return true;
+        }
         return false;
     }
 
@@ -90,63 +162,59 @@ public class BroadcastService {
     /* ========================================================== */
 
     // Send SEND
-    @SuppressWarnings("StatementWithEmptyBody")
-    public void broadcastSend(BroadcastMessage m) {
-        _delivers = new BroadcastMessage[_serverCount];
-        _request = m;
-
+    public void broadcastSend() {
         // Start threads to broadcast
-        _serverApp.postToServers(m, "/broadcast-send");
-        while (countAcks() <= (_serverCount + F_SERVERS) / 2) {
-            // empty
+        _serverApp.postToServers(_request, "/broadcast-send");
+
+        // Wait for a quorum of DELIVERs
+        try {
+            if (!_quorum.await(BROADCAST_TIMEOUT))
+                throw new BroadcastTimeoutException("Broadcast timed out: only " + countAcks() + " of " + _serverCount + " servers answered.");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new BroadcastTimeoutException("Broadcast interrupted while waiting for a quorum of servers.");
         }
     }
 
-    // Deliver SEND -> Send ECHO
-    public void broadcastSENDDeliver(BroadcastMessage m) {
-        if (!_sentEcho) {
-            _sentEcho = true;
-            _serverApp.postToServers(m, "/broadcast-echo");
-        }
+    // Deliver SEND -> Send ECHO, only the originator's SEND is taken, ECHOs and READYs are resolved against it
+    public void broadcastSENDDeliver(int senderId, BroadcastMessage m) throws Exception {
+        if (senderId != _broadcastId.get_senderId()) return;
+        byte[] payload = m.payloadBytes();
+        ByteBuffer digest = ByteBuffer.wrap(BroadcastMessage.digest(payload));
+        _payloads.putIfAbsent(digest, payload);
+
+        if (_sentEcho.compareAndSet(false, true))
+            _serverApp.postToServers(digestMessage(digest), "/broadcast-echo");
     }
 
     // Deliver ECHO -> Send READY
     public void broadcastECHODeliver(int id, BroadcastMessage m) {
-        if (_echos[id] == null) _echos[id] = m;
+        ByteBuffer digest = ByteBuffer.wrap(m.get_digest());
+        int count = _echos.vote(id, digest);
 
-        if (!_sentReady) {
-            BroadcastMessage message = searchForMajorityMessage(_echos, (_serverCount+ F_SERVERS)/2);
-            if (message != null) {
-                _sentReady = true;
-                _serverApp.postToServers(message, "/broadcast-ready");
-            }
-        }
+        if (count > (_serverCount+ F_SERVERS)/2 && _sentReady.compareAndSet(false, true))
+            _serverApp.postToServers(digestMessage(digest), "/broadcast-ready");
     }
 
     // Deliver READY -> Send READY, Deliver response
     public boolean broadcastREADYDeliver(int id, BroadcastMessage m) {
-        if (_readys[id] == null) _readys[id] = m;
-        if (!_sentReady) {
-            BroadcastMessage message = searchForMajorityMessage(_readys, F_SERVERS);
-            if (message != null) {
-                _sentReady = true;
-                _serverApp.postToServers(message, "/broadcast-ready");
-            }
-            else return false; // for efficiency
-        }
-        if (!_delivered) {
-            BroadcastMessage message = searchForMajorityMessage(_readys, 2* F_SERVERS);
-            if (message != null) {
-                _delivered = true;
-                return true;
-            }
+        ByteBuffer digest = ByteBuffer.wrap(m.get_digest());
+        int count = _readys.vote(id, digest);
+
+        if (count > F_SERVERS && _sentReady.compareAndSet(false, true))
+            _serverApp.postToServers(digestMessage(digest), "/broadcast-ready");
+        if (count > 2* F_SERVERS && _delivered.compareAndSet(false, true)) {
+            _deliveredDigest = digest;
+            _onDelivered.run();
+            return true;
         }
         return false;
     }
 
     // Received answer
-    public void broadcastDeliver(int id, BroadcastMessage m) {
+    public synchronized void broadcastDeliver(int id, BroadcastMessage m) {
         if (_delivers[id] == null) _delivers[id] = m;
+        _quorum.ack(id);
     }
 
     @Override
@@ -0,0 +1,39 @@
+package pt.tecnico.sec.server.broadcast;
+
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+// Counts the digests voted for in an ECHO or READY phase, as they arrive, keeping only the first vote of each server
+public class DigestVotes {
+    private final AtomicReferenceArray<ByteBuffer> _votes;
+    private final Map<ByteBuffer, AtomicInteger> _counts = new ConcurrentHashMap<>();
+
+    public DigestVotes(int serverCount) {
+        _votes = new AtomicReferenceArray<>(serverCount);
+    }
+
+    // Returns how many servers voted for the digest so far, or 0 if the server had already voted
+    public int vote(int id, ByteBuffer digest) {
+        if (!_votes.compareAndSet(id, null, digest)) return 0;
+        return _counts.computeIfAbsent(digest, d -> new AtomicInteger()).incrementAndGet();
+    }
+
+    public int count(ByteBuffer digest) {
+        AtomicInteger count = _counts.get(digest);
+        return (count != null) ? count.get() : 0;
+    }
+
+    public boolean votedFor(int id, ByteBuffer digest) {
+        return digest.equals(_votes.get(id));
+    }
+
+    @Override
+    public String toString() {
+        return "DigestVotes{" +
+                "_digests=" + _counts.size() +
+                '}';
+    }
+}
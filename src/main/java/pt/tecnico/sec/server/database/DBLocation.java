@@ -3,22 +3,18 @@ package pt.tecnico.sec.server.database;
 import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
 import pt.tecnico.sec.client.report.Location;
 
-import javax.persistence.Entity;
-import javax.persistence.GeneratedValue;
-import javax.persistence.GenerationType;
-import javax.persistence.Id;
+import javax.persistence.Column;
+import javax.persistence.Embeddable;
 import java.util.Objects;
 
 @SuppressWarnings("unused")
 @JsonIgnoreProperties(ignoreUnknown = true)
-@Entity
+@Embeddable
 public class DBLocation {
 
-    @Id
-    @GeneratedValue(strategy= GenerationType.AUTO)
-    private Integer id;
-
+    @Column(name = "_x")
     private int _x;
+    @Column(name = "_y")
     private int _y;
 
     public DBLocation() {}
@@ -42,14 +38,6 @@ public class DBLocation {
         return _y;
     }
 
-    public Integer getId() {
-        return id;
-    }
-
-    public void setId(Integer id) {
-        this.id = id;
-    }
-
     public int get_x() {
         return _x;
     }
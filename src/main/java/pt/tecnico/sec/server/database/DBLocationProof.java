@@ -3,24 +3,16 @@ package pt.tecnico.sec.server.database;
 import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
 import pt.tecnico.sec.client.report.LocationProof;
 
-import javax.persistence.*;
 import java.util.Objects;
 
 @SuppressWarnings("unused")
 @JsonIgnoreProperties(ignoreUnknown = true)
-@Entity
 public class DBLocationProof {
 
-    @OneToOne(cascade= CascadeType.ALL)
     private DBProofData _proofData;
 
-    @Column(length = 3000)
     private String _signature = null;
 
-    @Id
-    @GeneratedValue(strategy= GenerationType.AUTO)
-    private Integer id;
-
     public DBLocationProof() {}
 
     public DBLocationProof(DBProofData proofData, String signature) {
@@ -54,14 +46,6 @@ public class DBLocationProof {
         return _proofData.get_witnessId();
     }
 
-    public Integer getId() {
-        return id;
-    }
-
-    public void setId(Integer id) {
-        this.id = id;
-    }
-
     public String completeString() {
         return "DBLocationProof{" +
                 "DBProofData='" + _proofData + '\'' +
@@ -81,11 +65,11 @@ public class DBLocationProof {
         if (this == o) return true;
         if (o == null || getClass() != o.getClass()) return false;
         DBLocationProof that = (DBLocationProof) o;
-        return Objects.equals(_proofData, that._proofData) && Objects.equals(_signature, that._signature) && Objects.equals(id, that.id);
+        return Objects.equals(_proofData, that._proofData) && Objects.equals(_signature, that._signature);
     }
 
     @Override
     public int hashCode() {
-        return Objects.hash(_proofData, _signature, id);
+        return Objects.hash(_proofData, _signature);
     }
 }
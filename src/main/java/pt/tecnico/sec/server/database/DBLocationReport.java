@@ -1,12 +1,13 @@
 package pt.tecnico.sec.server.database;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
-import com.fasterxml.jackson.databind.ObjectMapper;
 import pt.tecnico.sec.client.report.LocationProof;
 import pt.tecnico.sec.client.report.LocationReport;
+import pt.tecnico.sec.contract.ObjectMapperHandler;
 
 import javax.persistence.*;
-import java.io.IOException;
+import java.io.*;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Objects;
@@ -14,23 +15,35 @@ import java.util.Objects;
 @SuppressWarnings("unused")
 @JsonIgnoreProperties(ignoreUnknown = true)
 @Entity
+@Table(name = "dblocation_report", indexes = {
+        @Index(name = "report_user_epoch_idx", columnList = "_user_id, _epoch", unique = true),
+        @Index(name = "report_epoch_location_idx", columnList = "_epoch, _x, _y")
+})
 public class DBLocationReport {
 
     @Id
     @GeneratedValue(strategy=GenerationType.AUTO)
     private Integer id;
 
+    @Column(name = "_user_id")
     private int _userId;
 
+    @Column(name = "_epoch")
     private int _epoch;
 
     // Register timestamp
+    @Column(name = "_timestamp")
     private int _timestamp;
 
-    @ManyToOne(cascade=CascadeType.ALL)
+    @Embedded
     private DBLocation _DB_location;
 
-    @OneToMany(cascade=CascadeType.ALL)
+    // Proofs live in a single blob column, decoded only when they are first read
+    @Lob
+    @Column(name = "_proofs", columnDefinition = "MEDIUMBLOB")
+    private byte[] _proofsBytes;
+
+    @Transient
     private List<DBLocationProof> _DB_proofs = new ArrayList<>();
 
     @Column(length = 3000)
@@ -59,8 +72,7 @@ public class DBLocationReport {
 
     // convert from bytes
     public static DBLocationReport getFromBytes(byte[] reportBytes) throws IOException {
-        ObjectMapper objectMapper = new ObjectMapper();
-        return objectMapper.readValue(reportBytes, DBLocationReport.class);
+        return ObjectMapperHandler.readValue(reportBytes, DBLocationReport.class);
     }
 
     public int get_userId() {
@@ -80,6 +92,8 @@ public class DBLocationReport {
     }
 
     public List<DBLocationProof> get_DB_proofs() {
+        if (_DB_proofs == null)
+            _DB_proofs = decodeProofs(_proofsBytes);
         return _DB_proofs;
     }
 
@@ -87,6 +101,25 @@ public class DBLocationReport {
         this._DB_proofs = _proofs;
     }
 
+    // Encoded from the current proofs, so it also reflects changes made to the list
+    @JsonIgnore
+    public byte[] get_proofsBytes() {
+        if (_DB_proofs != null)
+            _proofsBytes = encodeProofs(_DB_proofs);
+        return _proofsBytes;
+    }
+
+    @PrePersist
+    @PreUpdate
+    private void storeProofs() {
+        get_proofsBytes();
+    }
+
+    @PostLoad
+    private void loadProofs() {
+        _DB_proofs = null; // decode lazily
+    }
+
     public Integer getId() {
         return id;
     }
@@ -119,8 +152,13 @@ public class DBLocationReport {
         this._timestamp = _timestamp;
     }
 
+    // ids are local to each replica's database, drop them before storing a report received from another server
+    public void clearIds() {
+        id = null;
+    }
+
     public DBLocationProof get_witness_proof(int id) {
-        for (DBLocationProof proof : _DB_proofs)
+        for (DBLocationProof proof : get_DB_proofs())
             if (proof.get_witnessId() == id) return proof;
         return null;
     }
@@ -133,7 +171,7 @@ public class DBLocationReport {
                 ", _epoch=" + _epoch +
                 ", _timestamp=" + _timestamp +
                 ", _DB_location=" + _DB_location +
-                ", _DB_proofs=" + _DB_proofs +
+                ", _DB_proofs=" + get_DB_proofs() +
                 ", _signature='" + _signature + '\'' +
                 '}';
     }
@@ -143,11 +181,67 @@ public class DBLocationReport {
         if (this == o) return true;
         if (o == null || getClass() != o.getClass()) return false;
         DBLocationReport that = (DBLocationReport) o;
-        return _userId == that._userId && _epoch == that._epoch && _timestamp == that._timestamp && Objects.equals(id, that.id) && Objects.equals(_DB_location, that._DB_location) && Objects.equals(_DB_proofs, that._DB_proofs) && Objects.equals(_signature, that._signature);
+        return _userId == that._userId && _epoch == that._epoch && _timestamp == that._timestamp && Objects.equals(id, that.id) && Objects.equals(_DB_location, that._DB_location) && Objects.equals(get_DB_proofs(), that.get_DB_proofs()) && Objects.equals(_signature, that._signature);
     }
 
     @Override
     public int hashCode() {
-        return Objects.hash(id, _userId, _epoch, _timestamp, _DB_location, _DB_proofs, _signature);
-    }
-}
\ No newline at end of file
+        return Objects.hash(id, _userId, _epoch, _timestamp, _DB_location, get_DB_proofs(), _signature);
+    }
+
+    /* ========================================================== */
+    /* ====[                  Proofs Codec                  ]==== */
+    /* ========================================================== */
+
+    // [count] then, per proof, [x][y][proverId][witnessId][epoch][type][signature]
+    // type and signature are preceded by a presence flag, they may be null in reports that are yet to be verified
+    static byte[] encodeProofs(List<DBLocationProof> proofs) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(64 + proofs.size() * 400);
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeInt(proofs.size());
+            for (DBLocationProof proof : proofs) {
+                DBProofData proofData = proof.get_proofData();
+                out.writeInt(proofData.get_DB_location().get_x());
+                out.writeInt(proofData.get_DB_location().get_y());
+                out.writeInt(proofData.get_proverId());
+                out.writeInt(proofData.get_witnessId());
+                out.writeInt(proofData.get_epoch());
+                writeNullableUTF(out, proofData.get_type());
+                writeNullableUTF(out, proof.get_signature());
+            }
+            out.flush();
+            return bytes.toByteArray();
+        }
+        catch (IOException e) {
+            throw new IllegalArgumentException("Unable to encode the report's proofs");
+        }
+    }
+
+    static List<DBLocationProof> decodeProofs(byte[] proofsBytes) {
+        List<DBLocationProof> proofs = new ArrayList<>();
+        if (proofsBytes == null) return proofs;
+        try {
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(proofsBytes));
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                DBLocation location = new DBLocation(in.readInt(), in.readInt());
+                DBProofData proofData = new DBProofData(location, in.readInt(), in.readInt(), in.readInt(), readNullableUTF(in));
+                proofs.add(new DBLocationProof(proofData, readNullableUTF(in)));
+            }
+            return proofs;
+        }
+        catch (IOException e) {
+            throw new IllegalArgumentException("Unable to decode the report's proofs");
+        }
+    }
+
+    private static void writeNullableUTF(DataOutputStream out, String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) out.writeUTF(value);
+    }
+
+    private static String readNullableUTF(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+}
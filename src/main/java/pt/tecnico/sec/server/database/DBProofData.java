@@ -3,15 +3,12 @@ package pt.tecnico.sec.server.database;
 import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
 import pt.tecnico.sec.client.report.ProofData;
 
-import javax.persistence.*;
 import java.util.Objects;
 
 @SuppressWarnings("unused")
 @JsonIgnoreProperties(ignoreUnknown = true)
-@Entity
 public class DBProofData {
 
-    @OneToOne(cascade=CascadeType.ALL)
     private DBLocation _DB_location;
 
     private int _proverId;
@@ -19,10 +16,6 @@ public class DBProofData {
     private int _epoch;
     private String _type;
 
-    @Id
-    @GeneratedValue(strategy= GenerationType.AUTO)
-    private Integer id;
-
     public DBProofData() {}
 
     public DBProofData(DBLocation DBLocation, int proverId, int witnessId, int epoch, String type) {
@@ -82,14 +75,6 @@ public class DBProofData {
         this._type = _type;
     }
 
-    public Integer getId() {
-        return id;
-    }
-
-    public void setId(Integer id) {
-        this.id = id;
-    }
-
     @Override
     public String toString() {
         return "DBProofData{" +
@@ -98,7 +83,6 @@ public class DBProofData {
                 ", _witnessId=" + _witnessId +
                 ", _epoch=" + _epoch +
                 ", _type='" + _type + '\'' +
-                ", id=" + id +
                 '}';
     }
 
@@ -107,11 +91,11 @@ public class DBProofData {
         if (this == o) return true;
         if (o == null || getClass() != o.getClass()) return false;
         DBProofData that = (DBProofData) o;
-        return _proverId == that._proverId && _witnessId == that._witnessId && _epoch == that._epoch && Objects.equals(_DB_location, that._DB_location) && Objects.equals(_type, that._type) && Objects.equals(id, that.id);
+        return _proverId == that._proverId && _witnessId == that._witnessId && _epoch == that._epoch && Objects.equals(_DB_location, that._DB_location) && Objects.equals(_type, that._type);
     }
 
     @Override
     public int hashCode() {
-        return Objects.hash(_DB_location, _proverId, _witnessId, _epoch, _type, id);
+        return Objects.hash(_DB_location, _proverId, _witnessId, _epoch, _type);
     }
 }
\ No newline at end of file
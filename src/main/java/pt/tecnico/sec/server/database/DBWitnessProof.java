@@ -0,0 +1,90 @@
+package pt.tecnico.sec.server.database;
+
+import javax.persistence.*;
+import java.util.Objects;
+
+// Inverted index entry: the report of prover at epoch holds a proof signed by witness
+@SuppressWarnings("unused")
+@Entity
+@Table(name = "dbwitness_proof", indexes = {
+        @Index(name = "witness_epoch_idx", columnList = "_witness_id, _epoch"),
+        @Index(name = "prover_epoch_witness_idx", columnList = "_prover_id, _epoch, _witness_id", unique = true) // re-indexing a report deletes by prover and epoch
+})
+public class DBWitnessProof {
+
+    @Id
+    @GeneratedValue(strategy=GenerationType.AUTO)
+    private Integer id;
+
+    @Column(name = "_witness_id")
+    private int _witnessId;
+
+    @Column(name = "_prover_id")
+    private int _proverId;
+
+    @Column(name = "_epoch")
+    private int _epoch;
+
+    public DBWitnessProof() {}
+
+    public DBWitnessProof(int witnessId, int proverId, int epoch) {
+        _witnessId = witnessId;
+        _proverId = proverId;
+        _epoch = epoch;
+    }
+
+    public Integer getId() {
+        return id;
+    }
+
+    public void setId(Integer id) {
+        this.id = id;
+    }
+
+    public int get_witnessId() {
+        return _witnessId;
+    }
+
+    public void set_witnessId(int _witnessId) {
+        this._witnessId = _witnessId;
+    }
+
+    public int get_proverId() {
+        return _proverId;
+    }
+
+    public void set_proverId(int _proverId) {
+        this._proverId = _proverId;
+    }
+
+    public int get_epoch() {
+        return _epoch;
+    }
+
+    public void set_epoch(int _epoch) {
+        this._epoch = _epoch;
+    }
+
+    @Override
+    public String toString() {
+        return "DBWitnessProof{" +
+                "id=" + id +
+                ", _witnessId=" + _witnessId +
+                ", _proverId=" + _proverId +
+                ", _epoch=" + _epoch +
+                '}';
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        DBWitnessProof that = (DBWitnessProof) o;
+        return _witnessId == that._witnessId && _proverId == that._proverId && _epoch == that._epoch && Objects.equals(id, that.id);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(id, _witnessId, _proverId, _epoch);
+    }
+}
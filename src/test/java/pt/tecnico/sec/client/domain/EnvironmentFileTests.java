@@ -0,0 +1,112 @@
+package pt.tecnico.sec.client.domain;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Path;
+
+class EnvironmentFileTests {
+
+    private static final int MAGIC = 0x53454345;
+    private static final int VERSION = 1;
+
+    @TempDir
+    Path _dir;
+
+    // two epochs of three users, x = 10 * epoch + userId and y = 20 * epoch + userId
+    private String writeKnown(int magic, int version) throws IOException {
+        String path = _dir.resolve("known.bin").toString();
+        try (DataOutputStream out = new DataOutputStream(new FileOutputStream(path))) {
+            out.writeInt(magic);
+            out.writeInt(version);
+            out.writeInt(2);
+            out.writeInt(3);
+            for (int epoch = 0; epoch < 2; epoch++) {
+                for (int userId = 0; userId < 3; userId++) out.writeInt(10 * epoch + userId);
+                for (int userId = 0; userId < 3; userId++) out.writeInt(20 * epoch + userId);
+            }
+        }
+        return path;
+    }
+
+    private static void assertInvalid(String path) {
+        try (EnvironmentFile ignored = EnvironmentFile.open(path)) {
+            assert(false);
+        } catch (IOException e) {
+            assert(e.getMessage().startsWith("Invalid environment file"));
+        }
+    }
+
+    @Test
+    public void readsEachEpoch() throws IOException {
+        try (EnvironmentFile file = EnvironmentFile.open(writeKnown(MAGIC, VERSION))) {
+            assert(file.getEpochCount() == 2);
+            assert(file.getUserCount() == 3);
+
+            Grid grid = file.readGrid(1);
+            for (int userId = 0; userId < 3; userId++) {
+                assert(grid.getX(userId) == 10 + userId);
+                assert(grid.getY(userId) == 20 + userId);
+            }
+            assert(file.readGrid(0).getX(2) == 2);
+        }
+    }
+
+    @Test
+    public void writesWithinGridLimits() throws IOException {
+        // Given
+        String path = _dir.resolve("random.bin").toString();
+        EnvironmentFile.write(path, 5, 7, 4, 10);
+
+        try (EnvironmentFile file = EnvironmentFile.open(path)) {
+            assert(file.getEpochCount() == 4);
+            assert(file.getUserCount() == 10);
+            for (int epoch = 0; epoch < 4; epoch++) {
+                Grid grid = file.readGrid(epoch);
+                for (int userId = 0; userId < 10; userId++) {
+                    assert(grid.getX(userId) >= 0 && grid.getX(userId) < 5);
+                    assert(grid.getY(userId) >= 0 && grid.getY(userId) < 7);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void rejectsBadHeader() throws IOException {
+        assertInvalid(writeKnown(0xCAFEBABE, VERSION));
+        assertInvalid(writeKnown(MAGIC, VERSION + 1));
+    }
+
+    @Test
+    public void rejectsWrongSize() throws IOException {
+        String path = writeKnown(MAGIC, VERSION);
+        try (RandomAccessFile file = new RandomAccessFile(path, "rw")) {
+            file.setLength(file.length() - 1);
+        }
+        assertInvalid(path);
+
+        // shorter than the header
+        try (RandomAccessFile file = new RandomAccessFile(path, "rw")) {
+            file.setLength(8);
+        }
+        assertInvalid(path);
+    }
+
+    @Test
+    public void rejectsEpochOutOfRange() throws IOException {
+        try (EnvironmentFile file = EnvironmentFile.open(writeKnown(MAGIC, VERSION))) {
+            for (int epoch : new int[] { -1, 2 }) {
+                try {
+                    file.readGrid(epoch);
+                    assert(false);
+                } catch (IllegalArgumentException e) {
+                    // expected
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package pt.tecnico.sec.client.domain;
+
+import org.junit.jupiter.api.Test;
+import pt.tecnico.sec.client.report.Location;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static pt.tecnico.sec.Constants.DETECTION_RANGE;
+
+class GridTests {
+
+    // every other user within DETECTION_RANGE, by euclidean distance
+    private static List<Integer> bruteForceNearby(Grid grid, int userId1) {
+        Location location1 = grid.getUserLocation(userId1);
+        List<Integer> nearbyUsers = new ArrayList<>();
+        for (int userId2 : grid.getUserList())
+            if (userId2 != userId1 && location1.distance(grid.getUserLocation(userId2)) <= DETECTION_RANGE)
+                nearbyUsers.add(userId2);
+        return nearbyUsers;
+    }
+
+    private static void assertMatchesBruteForce(Grid grid) {
+        for (int userId : grid.getUserList()) {
+            List<Integer> nearbyUsers = grid.findNearbyUsers(userId);
+            assert(nearbyUsers.equals(bruteForceNearby(grid, userId))) : "user " + userId + ": " + nearbyUsers;
+            for (int other : grid.getUserList())
+                assert(other == userId || grid.isNearby(userId, other) == nearbyUsers.contains(other));
+        }
+    }
+
+    @Test
+    public void findsUsersExactlyInRange() {
+        // Given
+        int r = DETECTION_RANGE;
+        Grid grid = new Grid();
+        grid.addUserLocation(0, 0, 0);
+        grid.addUserLocation(1, r, 0);       // exactly in range, next cell
+        grid.addUserLocation(2, -r, 0);      // exactly in range, negative cell
+        grid.addUserLocation(3, 0, -r);
+        grid.addUserLocation(4, r + 1, 0);   // just out of range
+        grid.addUserLocation(5, r, 1);       // diagonal, out of range
+        grid.addUserLocation(6, 1, 1);       // diagonal, in range
+        grid.addUserLocation(7, 0, 0);       // same location
+
+        assert(grid.findNearbyUsers(0).equals(List.of(1, 2, 3, 6, 7)));
+        assertMatchesBruteForce(grid);
+    }
+
+    @Test
+    public void findsUsersAcrossCellBoundaries() {
+        // Given
+        int r = DETECTION_RANGE;
+        Grid grid = new Grid();
+        int userId = 0;
+        // users on and around the corners of the cells about the origin
+        for (int x = -2 * r - 1; x <= 2 * r + 1; x++)
+            for (int y : new int[] { -r - 1, -r, -1, 0, r - 1, r, r + 1 })
+                grid.addUserLocation(userId++, x, y);
+
+        assertMatchesBruteForce(grid);
+    }
+
+    @Test
+    public void matchesBruteForceOnRandomGrids() {
+        Random random = new Random(42);
+        for (int round = 0; round < 20; round++) {
+            // Given
+            Grid grid = new Grid();
+            int userCount = 50 + random.nextInt(150);
+            for (int userId = 0; userId < userCount; userId++)
+                grid.addUserLocation(userId, random.nextInt(21) - 10, random.nextInt(21) - 10);
+
+            assertMatchesBruteForce(grid);
+        }
+    }
+
+    @Test
+    public void rebuildsIndexWhenUsersAreAdded() {
+        Grid grid = new Grid();
+        grid.addUserLocation(0, -3, -3);
+        grid.addUserLocation(1, 10, 10);
+        assert(grid.findNearbyUsers(0).isEmpty());
+
+        // a user added after a query is found by the next one
+        grid.addUserLocation(2, -3 - DETECTION_RANGE, -3);
+        assert(grid.findNearbyUsers(0).equals(List.of(2)));
+    }
+
+    @Test
+    public void matchesConstructorFromArrays() {
+        // Given
+        int[] xs = { -5, -4, 0, 3, -1 };
+        int[] ys = { 7, 6, 0, -2, -1 };
+        Grid grid = new Grid(xs, ys);
+
+        assert(grid.getUserList().equals(List.of(0, 1, 2, 3, 4)));
+        assertMatchesBruteForce(grid);
+    }
+}
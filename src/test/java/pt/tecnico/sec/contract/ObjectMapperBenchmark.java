@@ -0,0 +1,78 @@
+package pt.tecnico.sec.contract;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import pt.tecnico.sec.client.report.Location;
+import pt.tecnico.sec.client.report.LocationProof;
+import pt.tecnico.sec.client.report.LocationReport;
+import pt.tecnico.sec.client.report.ProofData;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Throughput of the Message (de)serialization done for every signed message, with the shared mappers
+ * and with a new ObjectMapper per call (as done before).
+ * Run with: ./mvnw test-compile exec:exec -Dexec.classpathScope=test -Dexec.executable=java "-Dexec.args=-cp %classpath pt.tecnico.sec.contract.ObjectMapperBenchmark"
+ */
+@SuppressWarnings("deprecation")
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ObjectMapperBenchmark {
+
+    private Message _message;
+    private byte[] _messageBytes;
+
+    @Setup
+    public void setup() throws Exception {
+        // a signed location report with two proofs, as submitted by a client
+        Location location = new Location(1, 1);
+        List<LocationProof> proofs = new ArrayList<>();
+        for (int witnessId = 1; witnessId <= 2; witnessId++)
+            proofs.add(new LocationProof(new ProofData(location, 0, witnessId, 0, "success"), "c2lnbmF0dXJl"));
+        LocationReport report = new LocationReport(0, 0, location, proofs);
+
+        _message = new Message(new SignedLocationReport(report, "c2lnbmF0dXJl"));
+        _messageBytes = ObjectMapperHandler.writeValueAsBytes(_message);
+    }
+
+    @Benchmark
+    public byte[] writeMessage() throws Exception {
+        return ObjectMapperHandler.writeValueAsBytes(_message);
+    }
+
+    @Benchmark
+    public Message readMessage() throws Exception {
+        return ObjectMapperHandler.getMessageFromBytes(_messageBytes);
+    }
+
+    @Benchmark
+    public byte[] writeMessageNewMapper() throws Exception {
+        ObjectMapper objectMapper = new ObjectMapper();
+        objectMapper.enableDefaultTyping();
+        return objectMapper.writeValueAsBytes(_message);
+    }
+
+    @Benchmark
+    public Message readMessageNewMapper() throws Exception {
+        ObjectMapper objectMapper = new ObjectMapper();
+        objectMapper.enableDefaultTyping();
+        return objectMapper.readValue(_messageBytes, Message.class);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include(ObjectMapperBenchmark.class.getSimpleName())
+                .build();
+        new Runner(options).run();
+    }
+}
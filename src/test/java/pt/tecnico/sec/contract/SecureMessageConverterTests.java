@@ -0,0 +1,77 @@
+package pt.tecnico.sec.contract;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.HttpMessageNotReadableException;
+import org.springframework.mock.http.MockHttpInputMessage;
+import org.springframework.mock.http.MockHttpOutputMessage;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+class SecureMessageConverterTests {
+
+    private final SecureMessageConverter _converter = new SecureMessageConverter();
+
+    private SecureMessage roundTrip(SecureMessage secureMessage) throws IOException {
+        MockHttpOutputMessage output = new MockHttpOutputMessage();
+        _converter.write(secureMessage, MediaType.APPLICATION_OCTET_STREAM, output);
+
+        // the declared length matches the envelope
+        byte[] body = output.getBodyAsBytes();
+        assert(output.getHeaders().getContentLength() == body.length);
+
+        return _converter.read(SecureMessage.class, new MockHttpInputMessage(body));
+    }
+
+    @Test
+    public void roundTripsMessage() throws IOException {
+        // Given
+        byte[] cipher = { 1, 2, 3, 4, 5 };
+        byte[] signature = { 9, 8, 7 };
+
+        SecureMessage decoded = roundTrip(new SecureMessage(3, cipher, signature));
+        assert(decoded.get_senderId() == 3);
+        assert(Arrays.equals(decoded.get_cipheredMessage(), cipher));
+        assert(Arrays.equals(decoded.get_signature(), signature));
+    }
+
+    @Test
+    public void roundTripsNullAndEmptyFields() throws IOException {
+        SecureMessage decoded = roundTrip(new SecureMessage(-1, null, new byte[0]));
+        assert(decoded.get_senderId() == -1);
+        assert(decoded.get_cipheredMessage() == null);
+        assert(decoded.get_signature() != null && decoded.get_signature().length == 0);
+
+        decoded = roundTrip(new SecureMessage(0, new byte[0], null));
+        assert(decoded.get_cipheredMessage().length == 0);
+        assert(decoded.get_signature() == null);
+    }
+
+    @Test
+    public void rejectsInvalidLength() throws IOException {
+        for (int length : new int[] { -2, Integer.MAX_VALUE }) {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeInt(1);
+            out.writeInt(length);
+            out.flush();
+
+            try {
+                _converter.read(SecureMessage.class, new MockHttpInputMessage(bytes.toByteArray()));
+                assert(false);
+            } catch (HttpMessageNotReadableException e) {
+                // expected
+            }
+        }
+    }
+
+    @Test
+    public void supportsOnlySecureMessage() {
+        assert(_converter.canRead(SecureMessage.class, MediaType.APPLICATION_OCTET_STREAM));
+        assert(!_converter.canRead(SecureMessage.class, MediaType.APPLICATION_JSON));
+        assert(!_converter.canWrite(String.class, MediaType.APPLICATION_OCTET_STREAM));
+    }
+}
@@ -0,0 +1,137 @@
+package pt.tecnico.sec.keys;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import javax.crypto.SecretKey;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+import static pt.tecnico.sec.Constants.*;
+
+class JavaKeyStoreTests {
+
+    private static final String PASSWORD = "test";
+
+    private Path _keyStoreDirectory;
+    private boolean _createdKeyStoreDirectory;
+    private String _subdirectory;
+    private String _name;
+
+    // key stores live under KEYSTORE_DIRECTORY, each test uses its own subdirectory there
+    @BeforeEach
+    public void setUp() throws IOException {
+        _keyStoreDirectory = Path.of(KEYSTORE_DIRECTORY);
+        _createdKeyStoreDirectory = !Files.exists(_keyStoreDirectory);
+        _subdirectory = "test" + System.nanoTime();
+        Files.createDirectories(_keyStoreDirectory.resolve(_subdirectory));
+        _name = _subdirectory + "/test" + KEYSTORE_EXTENSION;
+    }
+
+    @AfterEach
+    public void tearDown() throws IOException {
+        Path root = _createdKeyStoreDirectory ? _keyStoreDirectory : _keyStoreDirectory.resolve(_subdirectory);
+        if (!Files.exists(root)) return;
+        try (Stream<Path> paths = Files.walk(root)) {
+            for (Path path : (Iterable<Path>) paths.sorted(Comparator.reverseOrder())::iterator)
+                Files.delete(path);
+        }
+    }
+
+    private JavaKeyStore createKeyStore() throws Exception {
+        JavaKeyStore keyStore = new JavaKeyStore(KEYSTORE_TYPE, PASSWORD, _name);
+        keyStore.createEmptyKeyStore();
+        return keyStore;
+    }
+
+    // the key as read from disk by a fresh key store, or null
+    private SecretKey storedSecretKey(String alias) throws Exception {
+        JavaKeyStore keyStore = new JavaKeyStore(KEYSTORE_TYPE, PASSWORD, _name);
+        keyStore.loadKeyStore();
+        return keyStore.getSecretKey(alias);
+    }
+
+    private static SecretKey secretKey(int seed) {
+        byte[] bytes = new byte[16];
+        Arrays.fill(bytes, (byte) seed);
+        return new SecretKeySpec(bytes, "AES");
+    }
+
+    @Test
+    public void writesThroughWithoutWriteBehind() throws Exception {
+        JavaKeyStore keyStore = createKeyStore();
+        keyStore.setWriteBehind(false);
+
+        keyStore.setAndStoreSecretKey("server1", secretKey(1));
+        assert(secretKey(1).equals(storedSecretKey("server1")));
+        keyStore.close();
+    }
+
+    @Test
+    public void flushesPendingKeysOnClose() throws Exception {
+        JavaKeyStore keyStore = createKeyStore();
+        keyStore.setWriteBehind(true);
+
+        // the update is served from memory before it reaches the disk
+        keyStore.setAndStoreSecretKey("server1", secretKey(1));
+        keyStore.setAndStoreSecretKey("server1", secretKey(2));
+        assert(secretKey(2).equals(keyStore.getSecretKey("server1")));
+        assert(storedSecretKey("server1") == null);
+
+        keyStore.close();
+        assert(secretKey(2).equals(storedSecretKey("server1")));
+    }
+
+    @Test
+    public void flushesPendingKeysInBackground() throws Exception {
+        JavaKeyStore keyStore = createKeyStore();
+        keyStore.setWriteBehind(true);
+        keyStore.setAndStoreSecretKey("server1", secretKey(1));
+
+        long deadline = System.currentTimeMillis() + KEYSTORE_FLUSH_DELAY * 5;
+        while (storedSecretKey("server1") == null && System.currentTimeMillis() < deadline)
+            Thread.sleep(100);
+        assert(secretKey(1).equals(storedSecretKey("server1")));
+        keyStore.close();
+    }
+
+    @Test
+    public void keepsDirtyWhenStoringFails() throws Exception {
+        JavaKeyStore keyStore = createKeyStore();
+        keyStore.setWriteBehind(true);
+        keyStore.setAndStoreSecretKey("server1", secretKey(1));
+
+        // Given - the key store file cannot be written
+        Path directory = _keyStoreDirectory.resolve(_subdirectory);
+        Files.delete(directory.resolve("test" + KEYSTORE_EXTENSION));
+        Files.delete(directory);
+        try {
+            keyStore.flush();
+            assert(false);
+        } catch (IOException e) {
+            // expected
+        }
+
+        // the update is still pending, the next flush writes it
+        Files.createDirectories(directory);
+        keyStore.close();
+        assert(secretKey(1).equals(storedSecretKey("server1")));
+    }
+
+    @Test
+    public void disablingWriteBehindFlushes() throws Exception {
+        JavaKeyStore keyStore = createKeyStore();
+        keyStore.setWriteBehind(true);
+        keyStore.setAndStoreSecretKey("server1", secretKey(1));
+
+        keyStore.setWriteBehind(false);
+        assert(secretKey(1).equals(storedSecretKey("server1")));
+        keyStore.close();
+    }
+}
@@ -0,0 +1,118 @@
+package pt.tecnico.sec.keys;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import pt.tecnico.sec.client.report.Location;
+import pt.tecnico.sec.client.report.LocationProof;
+import pt.tecnico.sec.client.report.LocationReport;
+import pt.tecnico.sec.client.report.ProofData;
+import pt.tecnico.sec.contract.Message;
+import pt.tecnico.sec.contract.ObjectMapperHandler;
+import pt.tecnico.sec.contract.SecureMessage;
+import pt.tecnico.sec.contract.SignedLocationReport;
+
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.IvParameterSpec;
+import java.security.*;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Throughput of the sign+encrypt and decrypt+verify paths of a SecureMessage, with the cached crypto engines
+ * and with a fresh Signature/Cipher per call (as done before).
+ * Run with: ./mvnw test-compile exec:exec -Dexec.classpathScope=test -Dexec.executable=java "-Dexec.args=-cp %classpath pt.tecnico.sec.keys.SecureMessageBenchmark"
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SecureMessageBenchmark {
+
+    private static final byte[] IV = new byte[16];
+
+    private PrivateKey _signKey;
+    private PublicKey _verifyKey;
+    private SecretKey _secretKey;
+    private byte[] _messageBytes;
+    private SecureMessage _secureMessage;
+    private String _cipheredMessageText;
+    private String _signatureText;
+
+    @Setup
+    public void setup() throws Exception {
+        KeyPairGenerator keyPairGenerator = KeyPairGenerator.getInstance("RSA");
+        keyPairGenerator.initialize(1024);
+        KeyPair keyPair = keyPairGenerator.generateKeyPair();
+        _signKey = keyPair.getPrivate();
+        _verifyKey = keyPair.getPublic();
+        _secretKey = AESKeyGenerator.makeAESKey();
+
+        // a location report with two proofs, as submitted by a client
+        Location location = new Location(1, 1);
+        List<LocationProof> proofs = new ArrayList<>();
+        for (int witnessId = 1; witnessId <= 2; witnessId++) {
+            ProofData proofData = new ProofData(location, 0, witnessId, 0, "success");
+            proofs.add(new LocationProof(proofData, CryptoRSA.sign(ObjectMapperHandler.writeValueAsBytes(proofData), _signKey)));
+        }
+        LocationReport report = new LocationReport(0, 0, location, proofs);
+        Message message = new Message(new SignedLocationReport(report, _signKey));
+
+        _messageBytes = ObjectMapperHandler.writeValueAsBytes(message);
+        _secureMessage = new SecureMessage(0, _messageBytes, _secretKey, _signKey);
+        // the uncached baselines keep the former Base64 text encoding of the payload
+        _cipheredMessageText = Base64.getEncoder().encodeToString(_secureMessage.get_cipheredMessage());
+        _signatureText = Base64.getEncoder().encodeToString(_secureMessage.get_signature());
+    }
+
+    @Benchmark
+    public SecureMessage signAndEncrypt() throws Exception {
+        return new SecureMessage(0, _messageBytes, _secretKey, _signKey);
+    }
+
+    @Benchmark
+    public byte[] decryptAndVerify() throws Exception {
+        return _secureMessage.decipherAndVerify(_secretKey, _verifyKey);
+    }
+
+    @Benchmark
+    public String[] signAndEncryptUncached() throws Exception {
+        Cipher cipher = Cipher.getInstance("AES/CBC/PKCS5Padding");
+        cipher.init(Cipher.ENCRYPT_MODE, _secretKey, new IvParameterSpec(IV));
+        String cipheredMessage = Base64.getEncoder().encodeToString(cipher.doFinal(_messageBytes));
+
+        Signature privateSignature = Signature.getInstance("SHA256withRSA");
+        privateSignature.initSign(_signKey);
+        privateSignature.update(_messageBytes);
+        String signature = Base64.getEncoder().encodeToString(privateSignature.sign());
+        return new String[] { cipheredMessage, signature };
+    }
+
+    @Benchmark
+    public byte[] decryptAndVerifyUncached() throws Exception {
+        Cipher cipher = Cipher.getInstance("AES/CBC/PKCS5PADDING");
+        cipher.init(Cipher.DECRYPT_MODE, _secretKey, new IvParameterSpec(IV));
+        byte[] messageBytes = cipher.doFinal(Base64.getDecoder().decode(_cipheredMessageText));
+
+        Signature publicSignature = Signature.getInstance("SHA256withRSA");
+        publicSignature.initVerify(_verifyKey);
+        publicSignature.update(messageBytes);
+        if (!publicSignature.verify(Base64.getDecoder().decode(_signatureText)))
+            throw new IllegalStateException("Signature verify failed!");
+        return messageBytes;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include(SecureMessageBenchmark.class.getSimpleName())
+                .build();
+        new Runner(options).run();
+    }
+}
@@ -0,0 +1,88 @@
+package pt.tecnico.sec.keys;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.PublicKey;
+
+class VerifiedSignatureCacheTests {
+
+    private static KeyPair _keyPair;
+    private static PublicKey _otherKey;
+
+    @BeforeAll
+    public static void setUp() throws Exception {
+        KeyPairGenerator keyPairGenerator = KeyPairGenerator.getInstance("RSA");
+        keyPairGenerator.initialize(1024);
+        _keyPair = keyPairGenerator.generateKeyPair();
+        _otherKey = keyPairGenerator.generateKeyPair().getPublic();
+    }
+
+    private static byte[] bytes(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void keysDependOnEveryField() {
+        VerifiedSignatureCache cache = new VerifiedSignatureCache(10);
+        PublicKey key = _keyPair.getPublic();
+        ByteBuffer cacheKey = cache.key(bytes("data"), "c2ln", key);
+
+        // the same fields give the same key
+        assert(cacheKey.equals(cache.key(bytes("data"), "c2ln", key)));
+
+        assert(!cacheKey.equals(cache.key(bytes("datb"), "c2ln", key)));
+        assert(!cacheKey.equals(cache.key(bytes("data"), "c2lo", key)));
+        assert(!cacheKey.equals(cache.key(bytes("data"), "c2ln", _otherKey)));
+    }
+
+    @Test
+    public void keysDoNotCollideAcrossFieldBoundaries() {
+        VerifiedSignatureCache cache = new VerifiedSignatureCache(10);
+        PublicKey key = _keyPair.getPublic();
+
+        // the same concatenated bytes, split differently between data and signature
+        ByteBuffer first = cache.key(bytes("abc"), "def", key);
+        ByteBuffer second = cache.key(bytes("abcd"), "ef", key);
+        ByteBuffer third = cache.key(bytes(""), "abcdef", key);
+        assert(!first.equals(second));
+        assert(!first.equals(third));
+        assert(!second.equals(third));
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsed() {
+        VerifiedSignatureCache cache = new VerifiedSignatureCache(2);
+        PublicKey key = _keyPair.getPublic();
+        ByteBuffer first = cache.key(bytes("1"), "s", key);
+        ByteBuffer second = cache.key(bytes("2"), "s", key);
+        ByteBuffer third = cache.key(bytes("3"), "s", key);
+
+        cache.add(first);
+        cache.add(second);
+        assert(cache.contains(first)); // second is now the eldest
+        cache.add(third);
+
+        assert(cache.contains(first));
+        assert(!cache.contains(second));
+        assert(cache.contains(third));
+    }
+
+    @Test
+    public void cachedVerifyRejectsOtherSignatures() throws Exception {
+        byte[] data = bytes("location proof " + System.nanoTime());
+        String signature = CryptoRSA.sign(data, _keyPair.getPrivate());
+        String otherSignature = CryptoRSA.sign(bytes("other " + System.nanoTime()), _keyPair.getPrivate());
+
+        // a remembered verification does not vouch for other data, signatures or keys
+        assert(CryptoRSA.verifyCached(data, signature, _keyPair.getPublic()));
+        assert(CryptoRSA.verifyCached(data, signature, _keyPair.getPublic()));
+        assert(!CryptoRSA.verifyCached(data, otherSignature, _keyPair.getPublic()));
+        assert(!CryptoRSA.verifyCached(bytes("tampered"), signature, _keyPair.getPublic()));
+        assert(!CryptoRSA.verifyCached(data, signature, _otherKey));
+    }
+}
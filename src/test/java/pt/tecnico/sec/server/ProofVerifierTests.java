@@ -0,0 +1,243 @@
+package pt.tecnico.sec.server;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import pt.tecnico.sec.client.report.Location;
+import pt.tecnico.sec.client.report.LocationProof;
+import pt.tecnico.sec.client.report.LocationReport;
+import pt.tecnico.sec.client.report.ProofData;
+import pt.tecnico.sec.contract.ObjectMapperHandler;
+import pt.tecnico.sec.contract.exception.ReportNotAcceptableException;
+import pt.tecnico.sec.keys.CryptoRSA;
+
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.PublicKey;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static pt.tecnico.sec.Constants.*;
+
+class ProofVerifierTests {
+
+    private static final int USER_COUNT = 12;
+    private static final int PROVER_ID = 0;
+    private static final int EPOCH = 1;
+    private static final Location LOCATION = new Location(0, 0);
+
+    private static final List<KeyPair> _keyPairs = new ArrayList<>();
+    private static final List<PublicKey> _publicKeys = new ArrayList<>();
+    private static ProofVerifier _verifier;
+
+    @BeforeAll
+    public static void setUp() throws Exception {
+        KeyPairGenerator keyPairGenerator = KeyPairGenerator.getInstance("RSA");
+        keyPairGenerator.initialize(1024);
+        for (int userId = 0; userId < USER_COUNT; userId++) {
+            KeyPair keyPair = keyPairGenerator.generateKeyPair();
+            _keyPairs.add(keyPair);
+            _publicKeys.add(keyPair.getPublic());
+        }
+        _verifier = new ProofVerifier(4);
+    }
+
+    @AfterAll
+    public static void tearDown() {
+        _verifier.shutdown();
+    }
+
+    private static LocationProof validProof(int witnessId) throws Exception {
+        return signedProof(witnessId, witnessId, new Location(1, 0));
+    }
+
+    // signed by the key of signerId instead of the witness'
+    private static LocationProof forgedProof(int witnessId) throws Exception {
+        return signedProof(witnessId, (witnessId + 1) % USER_COUNT, new Location(1, 0));
+    }
+
+    private static LocationProof farProof(int witnessId) throws Exception {
+        return signedProof(witnessId, witnessId, new Location(DETECTION_RANGE + 1, 0));
+    }
+
+    private static LocationProof signedProof(int witnessId, int signerId, Location location) throws Exception {
+        ProofData proofData = new ProofData(location, PROVER_ID, witnessId, EPOCH, SUCCESS);
+        byte[] bytes = ObjectMapperHandler.writeValueAsBytes(proofData);
+        return new LocationProof(proofData, CryptoRSA.sign(bytes, _keyPairs.get(signerId).getPrivate()));
+    }
+
+    private static LocationReport report(List<LocationProof> proofs) {
+        return new LocationReport(PROVER_ID, EPOCH, LOCATION, proofs);
+    }
+
+    private static boolean acceptsAll(LocationReport report, List<PublicKey> publicKeys) {
+        try {
+            _verifier.verifyAll(report, publicKeys);
+            return true;
+        } catch (ReportNotAcceptableException e) {
+            return false;
+        }
+    }
+
+    private static boolean acceptsEnough(LocationReport report, List<PublicKey> publicKeys) {
+        try {
+            _verifier.verifyEnough(report, publicKeys);
+            return true;
+        } catch (ReportNotAcceptableException e) {
+            return false;
+        }
+    }
+
+    private static boolean acceptsWitness(LocationReport report, int witnessId) {
+        try {
+            _verifier.verifyWitness(report, witnessId, _publicKeys);
+            return true;
+        } catch (ReportNotAcceptableException e) {
+            return false;
+        }
+    }
+
+    // counts the proofs checked, each check looks up the witness' key once
+    private static List<PublicKey> countingKeys(AtomicInteger lookups) {
+        return new AbstractList<>() {
+            @Override
+            public PublicKey get(int index) {
+                lookups.incrementAndGet();
+                return _publicKeys.get(index);
+            }
+
+            @Override
+            public int size() {
+                return _publicKeys.size();
+            }
+        };
+    }
+
+    @Test
+    public void acceptsValidReports() throws Exception {
+        for (int proofCount = F_USERS + 1; proofCount <= PARALLEL_VERIFY_THRESHOLD + 2; proofCount++) {
+            // Given
+            List<LocationProof> proofs = new ArrayList<>();
+            for (int witnessId = 1; witnessId <= proofCount; witnessId++)
+                proofs.add(validProof(witnessId));
+            LocationReport report = report(proofs);
+
+            assert(acceptsAll(report, _publicKeys));
+            assert(acceptsEnough(report, _publicKeys));
+        }
+    }
+
+    @Test
+    public void rejectsDuplicateWitnesses() throws Exception {
+        for (int proofCount = F_USERS + 1; proofCount <= PARALLEL_VERIFY_THRESHOLD + 2; proofCount++) {
+            // Given - every proof is valid on its own, but witness 1 signs twice
+            List<LocationProof> proofs = new ArrayList<>();
+            proofs.add(validProof(1));
+            for (int witnessId = 1; witnessId < proofCount; witnessId++)
+                proofs.add(validProof(witnessId));
+            LocationReport report = report(proofs);
+
+            assert(!acceptsAll(report, _publicKeys));
+            // the repeated witness counts once towards F_USERS + 1
+            assert(acceptsEnough(report, _publicKeys) == (proofCount - 1 > F_USERS));
+        }
+    }
+
+    @Test
+    public void rejectsSingleWitnessRepeated() throws Exception {
+        List<LocationProof> proofs = new ArrayList<>();
+        for (int i = 0; i <= PARALLEL_VERIFY_THRESHOLD; i++)
+            proofs.add(validProof(1));
+
+        assert(!acceptsAll(report(proofs), _publicKeys));
+        assert(!acceptsEnough(report(proofs), _publicKeys));
+    }
+
+    @Test
+    public void rejectsTooFewProofs() throws Exception {
+        List<LocationProof> proofs = new ArrayList<>();
+        for (int witnessId = 1; witnessId <= F_USERS; witnessId++)
+            proofs.add(validProof(witnessId));
+
+        assert(!acceptsAll(report(proofs), _publicKeys));
+        assert(!acceptsEnough(report(proofs), _publicKeys));
+    }
+
+    @Test
+    public void stopsAtEnoughValidProofs() throws Exception {
+        // Given - sequential path, the first F_USERS + 1 proofs are enough
+        List<LocationProof> proofs = new ArrayList<>();
+        for (int witnessId = 1; witnessId < PARALLEL_VERIFY_THRESHOLD; witnessId++)
+            proofs.add(validProof(witnessId));
+        assert(proofs.size() > F_USERS + 1);
+
+        AtomicInteger lookups = new AtomicInteger();
+        assert(acceptsEnough(report(proofs), countingKeys(lookups)));
+        assert(lookups.get() == F_USERS + 1);
+
+        // every proof is checked when all of them must be valid
+        lookups.set(0);
+        assert(acceptsAll(report(proofs), countingKeys(lookups)));
+        assert(lookups.get() == proofs.size());
+    }
+
+    @Test
+    public void agreesAroundParallelThreshold() throws Exception {
+        Random random = new Random(7);
+        for (int round = 0; round < 60; round++) {
+            // Given - sizes on both sides of the threshold, with a mix of valid, forged, far and repeated proofs
+            int proofCount = PARALLEL_VERIFY_THRESHOLD - 2 + random.nextInt(5);
+            List<LocationProof> proofs = new ArrayList<>();
+            for (int i = 0; i < proofCount; i++) {
+                int witnessId = 1 + random.nextInt(USER_COUNT - 1);
+                int kind = random.nextInt(6);
+                proofs.add(kind == 0 ? forgedProof(witnessId) : kind == 1 ? farProof(witnessId) : validProof(witnessId));
+            }
+            LocationReport report = report(proofs);
+
+            // expected outcomes from a plain sequential scan
+            Set<Integer> witnesses = new HashSet<>();
+            Set<Integer> validWitnesses = new HashSet<>();
+            boolean allValid = true;
+            for (LocationProof proof : proofs) {
+                boolean valid = report.isProofValid(proof, _publicKeys.get(proof.get_witnessId()));
+                allValid &= witnesses.add(proof.get_witnessId()) && valid;
+                if (valid) validWitnesses.add(proof.get_witnessId());
+            }
+
+            assert(acceptsAll(report, _publicKeys) == (allValid && proofs.size() > F_USERS)) : report;
+            assert(acceptsEnough(report, _publicKeys) == (validWitnesses.size() > F_USERS)) : report;
+            for (int witnessId = 1; witnessId < USER_COUNT; witnessId++) {
+                LocationProof proof = report.get_witness_proof(witnessId);
+                boolean expected = proof != null && report.isProofValid(proof, _publicKeys.get(witnessId));
+                assert(acceptsWitness(report, witnessId) == expected) : report;
+            }
+        }
+    }
+
+    @Test
+    public void verifiesRequestedWitness() throws Exception {
+        // Given - enough valid proofs, but the one of witness 3 is forged
+        List<LocationProof> proofs = new ArrayList<>();
+        for (int witnessId = 1; witnessId <= PARALLEL_VERIFY_THRESHOLD; witnessId++)
+            proofs.add(witnessId == 3 ? forgedProof(witnessId) : validProof(witnessId));
+        LocationReport report = report(proofs);
+
+        assert(acceptsEnough(report, _publicKeys));
+        assert(acceptsWitness(report, 1));
+        assert(!acceptsWitness(report, 3));
+        assert(!acceptsWitness(report, USER_COUNT - 1)); // no proof from this witness
+    }
+
+    @Test
+    public void rejectsUnknownWitness() throws Exception {
+        // Given - a witness without a key
+        List<LocationProof> proofs = new ArrayList<>(List.of(validProof(1), validProof(2)));
+        ProofData proofData = new ProofData(new Location(1, 0), PROVER_ID, USER_COUNT, EPOCH, SUCCESS);
+        proofs.add(new LocationProof(proofData, proofs.get(0).get_signature()));
+
+        assert(!acceptsAll(report(proofs), _publicKeys));
+        assert(acceptsEnough(report(proofs), _publicKeys));
+        assert(!acceptsWitness(report(proofs), USER_COUNT));
+    }
+}
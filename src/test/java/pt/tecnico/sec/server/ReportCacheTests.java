@@ -0,0 +1,67 @@
+package pt.tecnico.sec.server;
+
+import org.junit.jupiter.api.Test;
+import pt.tecnico.sec.server.database.DBLocation;
+import pt.tecnico.sec.server.database.DBLocationReport;
+
+import java.util.ArrayList;
+
+class ReportCacheTests {
+
+    private static DBLocationReport report(int userId, int epoch, int timestamp) {
+        DBLocationReport report = new DBLocationReport(userId, epoch, new DBLocation(timestamp, timestamp), new ArrayList<>(), "signature");
+        report.set_timestamp(timestamp);
+        return report;
+    }
+
+    @Test
+    public void keepsHighestTimestamp() {
+        ReportCache cache = new ReportCache(10);
+        DBLocationReport older = report(1, 2, 3);
+        DBLocationReport newer = report(1, 2, 5);
+
+        // a newer report replaces the cached one
+        cache.put(older);
+        cache.put(newer);
+        assert(cache.get(1, 2) == newer);
+
+        // an older one does not, whatever the order
+        cache.put(report(1, 2, 4));
+        assert(cache.get(1, 2) == newer);
+        assert(cache.size() == 1);
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsed() {
+        ReportCache cache = new ReportCache(2);
+        cache.put(report(1, 0, 0));
+        cache.put(report(2, 0, 0));
+
+        // reading user 1 makes user 2 the eldest
+        assert(cache.get(1, 0) != null);
+        cache.put(report(3, 0, 0));
+
+        assert(cache.size() == 2);
+        assert(cache.get(1, 0) != null);
+        assert(cache.get(2, 0) == null);
+        assert(cache.get(3, 0) != null);
+    }
+
+    @Test
+    public void countsHitsAndMisses() {
+        ReportCache cache = new ReportCache(10);
+        cache.put(report(1, 2, 0));
+
+        cache.get(1, 2);
+        cache.get(1, 3);
+        cache.get(2, 2);
+        assert(cache.get_hits() == 1);
+        assert(cache.get_misses() == 2);
+
+        // clearing drops the reports, not the counters
+        cache.clear();
+        assert(cache.size() == 0);
+        assert(cache.get(1, 2) == null);
+        assert(cache.get_misses() == 3);
+    }
+}
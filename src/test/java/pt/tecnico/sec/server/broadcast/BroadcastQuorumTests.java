@@ -0,0 +1,80 @@
+package pt.tecnico.sec.server.broadcast;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+class BroadcastQuorumTests {
+
+    @Test
+    public void completesAfterMoreThanQuorum() throws InterruptedException {
+        BroadcastQuorum quorum = new BroadcastQuorum(4, 2);
+
+        // quorum acks are not enough, it takes more than quorum
+        assert(quorum.ack(0));
+        assert(quorum.ack(1));
+        assert(!quorum.is_reached());
+        assert(!quorum.await(10));
+
+        assert(quorum.ack(3));
+        assert(quorum.is_reached());
+        assert(quorum.await(0));
+        assert(quorum.get_acks() == 3);
+    }
+
+    @Test
+    public void countsEachServerOnce() throws InterruptedException {
+        BroadcastQuorum quorum = new BroadcastQuorum(4, 2);
+        assert(quorum.ack(2));
+        assert(!quorum.ack(2));
+        assert(quorum.ack(1));
+        assert(!quorum.ack(1));
+        assert(!quorum.ack(2));
+
+        assert(quorum.get_acks() == 2);
+        assert(!quorum.is_reached());
+        assert(!quorum.await(10));
+    }
+
+    @Test
+    public void timesOutWithoutQuorum() throws InterruptedException {
+        BroadcastQuorum quorum = new BroadcastQuorum(4, 2);
+        quorum.ack(0);
+
+        long start = System.currentTimeMillis();
+        assert(!quorum.await(100));
+        assert(System.currentTimeMillis() - start >= 100);
+    }
+
+    @Test
+    public void wakesWaiterWhenReached() throws InterruptedException {
+        BroadcastQuorum quorum = new BroadcastQuorum(7, 4);
+        ExecutorService executor = Executors.newFixedThreadPool(7);
+        CountDownLatch start = new CountDownLatch(1);
+        try {
+            // every server acks twice, concurrently
+            for (int i = 0; i < 14; i++) {
+                int serverId = i % 7;
+                executor.execute(() -> {
+                    try {
+                        start.await();
+                        quorum.ack(serverId);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                });
+            }
+            start.countDown();
+
+            assert(quorum.await(5000));
+            executor.shutdown();
+            assert(executor.awaitTermination(5, TimeUnit.SECONDS));
+            assert(quorum.get_acks() == 7);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package pt.tecnico.sec.server.broadcast;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import pt.tecnico.sec.server.ServerApplication;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static pt.tecnico.sec.Constants.F_SERVERS;
+
+class BroadcastRegistryTests {
+
+    private static final int SERVER_COUNT = 3 * F_SERVERS + 1;
+    private static final long LONG_TTL = 60000;
+
+    private ServerApplication _serverApp;
+
+    @BeforeEach
+    public void setUp() {
+        // postToServers does nothing on the mock
+        _serverApp = mock(ServerApplication.class);
+        when(_serverApp.getServerCount()).thenReturn(SERVER_COUNT);
+    }
+
+    private static void deliver(BroadcastService service, BroadcastId id) {
+        BroadcastMessage ready = new BroadcastMessage(id, new byte[] { 1, 2, 3 });
+        for (int i = 0; i <= 2 * F_SERVERS; i++)
+            service.broadcastREADYDeliver(i, ready);
+        assert(service.is_delivered());
+    }
+
+    @Test
+    public void countsUndeliveredOnce() {
+        BroadcastRegistry registry = new BroadcastRegistry(_serverApp, 10, LONG_TTL);
+        BroadcastId first = new BroadcastId(0, 1);
+        BroadcastId second = new BroadcastId(0, 2);
+
+        // the same id is one service
+        BroadcastService service = registry.getOrCreate(first);
+        assert(registry.getOrCreate(first) == service);
+        assert(registry.find(first) == service);
+        registry.getOrCreate(second);
+        assert(registry.size() == 2);
+        assert(registry.countUndelivered() == 2);
+
+        // delivering leaves the count once, later READYs do not
+        deliver(service, first);
+        service.broadcastREADYDeliver(SERVER_COUNT - 1, new BroadcastMessage(first, new byte[] { 1, 2, 3 }));
+        assert(registry.countUndelivered() == 1);
+        assert(registry.find(new BroadcastId(0, 3)) == null);
+    }
+
+    @Test
+    public void evictsOnlyDeliveredPastCapacity() {
+        BroadcastRegistry registry = new BroadcastRegistry(_serverApp, 2, LONG_TTL);
+        BroadcastId delivered = new BroadcastId(0, 1);
+        BroadcastId pending = new BroadcastId(0, 2);
+
+        deliver(registry.getOrCreate(delivered), delivered);
+        registry.getOrCreate(pending);
+        assert(registry.size() == 2);
+
+        // the delivered entry makes room, the undelivered one is kept
+        registry.getOrCreate(new BroadcastId(0, 3));
+        assert(registry.size() == 2);
+        assert(registry.find(delivered) == null);
+        assert(registry.find(pending) != null);
+
+        // undelivered entries are not evicted for capacity
+        registry.getOrCreate(new BroadcastId(0, 4));
+        assert(registry.size() == 3);
+        assert(registry.countUndelivered() == 3);
+    }
+
+    @Test
+    public void evictsExpiredEntries() throws InterruptedException {
+        BroadcastRegistry registry = new BroadcastRegistry(_serverApp, 10, 50);
+        BroadcastId id = new BroadcastId(0, 1);
+        registry.getOrCreate(id);
+        assert(registry.countUndelivered() == 1);
+
+        Thread.sleep(100);
+
+        // an expired broadcast is dropped even if never delivered
+        assert(registry.countUndelivered() == 0);
+        assert(registry.size() == 0);
+        assert(registry.find(id) == null);
+    }
+
+    @Test
+    public void dropsLateMessagesForEvictedIds() throws InterruptedException {
+        BroadcastRegistry registry = new BroadcastRegistry(_serverApp, 1, 50);
+        BroadcastId id = new BroadcastId(0, 1);
+        deliver(registry.getOrCreate(id), id);
+        registry.getOrCreate(new BroadcastId(0, 2));
+
+        // the evicted id is not started over
+        assert(registry.find(id) == null);
+        assert(registry.getOrCreate(id) == null);
+        assert(registry.size() == 1);
+
+        Thread.sleep(100);
+        registry.countUndelivered(); // evicts the expired entry and forgets old ids
+
+        // after another TTL the id is forgotten
+        assert(registry.getOrCreate(id) != null);
+        assert(registry.countUndelivered() == 1);
+    }
+}
@@ -0,0 +1,45 @@
+package pt.tecnico.sec.server.broadcast;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import pt.tecnico.sec.server.ServerApplication;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+import static pt.tecnico.sec.Constants.F_SERVERS;
+
+class BroadcastServiceTests {
+
+    private static final int SERVER_COUNT = 3 * F_SERVERS + 1;
+    private static final int ORIGINATOR = 1002;
+
+    private ServerApplication _serverApp;
+    private BroadcastId _id;
+    private BroadcastService _service;
+
+    @BeforeEach
+    public void setUp() {
+        _serverApp = mock(ServerApplication.class);
+        when(_serverApp.getServerCount()).thenReturn(SERVER_COUNT);
+        _id = new BroadcastId(ORIGINATOR, 7);
+        _service = new BroadcastService(_serverApp, _id, () -> {});
+    }
+
+    @Test
+    public void ignoresSendFromOtherServers() throws Exception {
+        BroadcastMessage m = new BroadcastMessage(_id, 3);
+        byte[] digest = BroadcastMessage.digest(m.payloadBytes());
+
+        // a SEND relayed by another server is neither echoed nor kept
+        _service.broadcastSENDDeliver(ORIGINATOR + 1, m);
+        verify(_serverApp, never()).postToServers(any(), any());
+        assert(_service.getPayload(digest) == null);
+
+        // the originator's SEND is echoed once
+        _service.broadcastSENDDeliver(ORIGINATOR, m);
+        _service.broadcastSENDDeliver(ORIGINATOR, m);
+        verify(_serverApp, times(1)).postToServers(any(), eq("/broadcast-echo"));
+        assert(_service.getPayload(digest) != null);
+    }
+}
@@ -0,0 +1,84 @@
+package pt.tecnico.sec.server.broadcast;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+class DigestVotesTests {
+
+    private static final int SERVER_COUNT = 64;
+
+    private static ByteBuffer digest(int value) {
+        return ByteBuffer.wrap(new byte[] { (byte) value, 1, 2, 3 });
+    }
+
+    @Test
+    public void countsOneVotePerServer() {
+        DigestVotes votes = new DigestVotes(4);
+
+        // first votes are counted per digest
+        assert(votes.vote(0, digest(1)) == 1);
+        assert(votes.vote(1, digest(1)) == 2);
+        assert(votes.vote(2, digest(2)) == 1);
+
+        // a server voting again, for any digest, is ignored
+        assert(votes.vote(0, digest(1)) == 0);
+        assert(votes.vote(2, digest(1)) == 0);
+        assert(votes.count(digest(1)) == 2);
+        assert(votes.count(digest(2)) == 1);
+        assert(votes.count(digest(3)) == 0);
+
+        assert(votes.votedFor(0, digest(1)));
+        assert(!votes.votedFor(2, digest(1)));
+        assert(!votes.votedFor(3, digest(1)));
+    }
+
+    @Test
+    public void comparesDigestsByContent() {
+        DigestVotes votes = new DigestVotes(2);
+        votes.vote(0, ByteBuffer.wrap(new byte[] { 7, 7 }));
+        assert(votes.vote(1, ByteBuffer.wrap(new byte[] { 7, 7 })) == 2);
+    }
+
+    @Test
+    public void crossesEachThresholdOnceUnderConcurrentVotes() throws Exception {
+        int threshold = (SERVER_COUNT * 2) / 3;
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            for (int round = 0; round < 50; round++) {
+                DigestVotes votes = new DigestVotes(SERVER_COUNT);
+                AtomicInteger crossings = new AtomicInteger();
+                CountDownLatch start = new CountDownLatch(1);
+                CountDownLatch done = new CountDownLatch(SERVER_COUNT * 3);
+
+                // every server votes three times, concurrently
+                for (int i = 0; i < SERVER_COUNT * 3; i++) {
+                    int serverId = i % SERVER_COUNT;
+                    executor.execute(() -> {
+                        try {
+                            start.await();
+                            if (votes.vote(serverId, digest(1)) == threshold + 1)
+                                crossings.incrementAndGet();
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        } finally {
+                            done.countDown();
+                        }
+                    });
+                }
+                start.countDown();
+                assert(done.await(10, TimeUnit.SECONDS));
+
+                assert(votes.count(digest(1)) == SERVER_COUNT);
+                assert(crossings.get() == 1);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package pt.tecnico.sec.server.database;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+class DBLocationReportTests {
+
+    private static DBLocationProof proof(int witnessId, String type, String signature) {
+        DBProofData proofData = new DBProofData(new DBLocation(3, 4), 1, witnessId, 7, type);
+        return new DBLocationProof(proofData, signature);
+    }
+
+    @Test
+    public void roundTripsProofs() {
+        // Given
+        List<DBLocationProof> proofs = Arrays.asList(
+                proof(2, "success", "c2lnbmF0dXJl"),
+                proof(5, "failure", ""),
+                proof(6, "", "éçã")
+        );
+
+        List<DBLocationProof> decoded = DBLocationReport.decodeProofs(DBLocationReport.encodeProofs(proofs));
+        assert(decoded.equals(proofs));
+    }
+
+    @Test
+    public void roundTripsNullFields() {
+        // Given
+        List<DBLocationProof> proofs = Arrays.asList(
+                proof(2, null, "c2lnbmF0dXJl"),
+                proof(3, "success", null),
+                proof(4, null, null)
+        );
+
+        List<DBLocationProof> decoded = DBLocationReport.decodeProofs(DBLocationReport.encodeProofs(proofs));
+        assert(decoded.equals(proofs));
+        assert(decoded.get(0).get_proofData().get_type() == null);
+        assert(decoded.get(1).get_signature() == null);
+    }
+
+    @Test
+    public void roundTripsEmptyList() {
+        byte[] bytes = DBLocationReport.encodeProofs(new ArrayList<>());
+        assert(DBLocationReport.decodeProofs(bytes).isEmpty());
+    }
+
+    @Test
+    public void decodesMissingBytesAsEmpty() {
+        assert(DBLocationReport.decodeProofs(null).isEmpty());
+    }
+
+    @Test
+    public void rejectsTruncatedBytes() {
+        byte[] bytes = DBLocationReport.encodeProofs(List.of(proof(2, "success", "c2lnbmF0dXJl")));
+        try {
+            DBLocationReport.decodeProofs(Arrays.copyOf(bytes, bytes.length - 3));
+            assert(false);
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+}